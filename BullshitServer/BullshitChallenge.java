@@ -0,0 +1,41 @@
+/*
+ * The Bullshit challenge, PUBLIC_BULLSHIT on the switch.  Each game seats
+ * cw.bullshit.players bots (default 4, at most 13 so everybody is dealt four
+ * cards) and is a draw after cw.bullshit.maxTurns turns (default 1000).
+ */
+
+package BullshitServer;
+
+import cw_generic.ChallengeType;
+import cw_generic.GameRules;
+import cw_generic.HouseEngine;
+import cw_generic.ServerConfig;
+
+public class BullshitChallenge implements ChallengeType {
+    private final int players = Math.max(2, Math.min(BullshitRules.RANKS, ServerConfig.getInt("bullshit.players", 4)));
+    private final int maxTurns = Math.max(1, ServerConfig.getInt("bullshit.maxTurns", 1000));
+
+    public String getName() {
+        return "PUBLIC_BULLSHIT";
+    }
+
+    public String getKey() {
+        return "123456";
+    }
+
+    public int getPlayers() {
+        return players;
+    }
+
+    public GameRules newRules(int seats) {
+        return new BullshitRules(seats, maxTurns);
+    }
+
+    public HouseEngine newHouseEngine(int depth) {
+        return null;
+    }
+
+    public boolean hasHouseEngine() {
+        return false;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * BullshitRules is the Bullshit engine for any number of seats.  The deck is
+ * dealt out round the table and the seats take turns to play one to four
+ * cards face down onto the pile, claiming they are all of the rank whose turn
+ * it is: aces first, then twos, and so on up to kings and round again.  A
+ * seat begins its turn by either accepting the previous claim or calling
+ * bullshit on it.  A call turns the cards over: if the claim was a lie its
+ * maker picks up the pile, otherwise the caller does.  A seat which has
+ * played its last cards wins once the next seat accepts or calls wrongly;
+ * the play of that turn is then void.  The game is a draw after
+ * cw.bullshit.maxTurns turns.
+ *
+ * Card c (0-51) is rank c/4 (0 ace ... 12 king) of suit c%4, and a hand is
+ * a long with bit c set for each card held.  Checking a claim is one mask
+ * test against the four cards of its rank, and a pile changes hands with a
+ * single or, whatever its size.
+ *
+ * A move is 'P' (accept) or 'B' (call bullshit) followed by the cards played
+ * as a hexadecimal bit mask, e.g. "P3" for the ace of spades and hearts.  A
+ * seat's view, sent with its ACTION_REQUEST, is
+ *   seat;rank;hand;lastSeat;lastCount;pile;count0,count1,...
+ * with the rank to claim now, its own hand in hexadecimal, the seat and card
+ * count of the claim that may be called (-1 and 0 if none), the number of
+ * cards in the pile and the number of cards each seat holds.  Nobody is told
+ * which cards anybody else holds or played.  The game record lists the
+ * number of cards played each turn, plus 10 where the turn began with a
+ * call ("3,2,12,1,...").
+ */
+
+package BullshitServer;
+
+import java.util.Random;
+
+import cw_generic.MoveHistory;
+import cw_generic.TableRules;
+
+public class BullshitRules implements TableRules {
+    public static final int CARDS = 52;
+    public static final int RANKS = 13;
+    public static final int MAX_PLAY = 4;       // Most cards in one play
+    private static final long[] RANK_MASK = new long[RANKS];     // The four cards of each rank
+    private static final String[] NAMES = {"-1", "1", "2", "3", "4"};   // Shared so getLastMove never allocates
+
+    static {
+        for (int r = 0; r < RANKS; r++) {
+            RANK_MASK[r] = 0xFL << (4 * r);
+        }
+    }
+
+    private final int seats;
+    private final int maxTurns;
+    private final long[] hand;
+    private final int[] deck = new int[CARDS];  // Dealing order, reused by every deal
+    private final MoveHistory history;
+    private final StringBuilder view = new StringBuilder(64);
+    private long pile;
+    private long lastPlay;                      // Cards of the claim which may be called, 0 if none
+    private int lastSeat;
+    private int lastRank;
+    private int rank;                           // Rank the next play claims
+    private int winner;
+
+    public BullshitRules(int seats, int maxTurns) {
+        this.seats = seats;
+        this.maxTurns = maxTurns;
+        this.hand = new long[seats];
+        this.history = new MoveHistory(Math.min(maxTurns, 1024));
+    }
+
+    // Shuffle the deck and deal it out, card by card, starting with seat 0.
+    public void init(Random random) {
+        for (int c = 0; c < CARDS; c++) {
+            deck[c] = c;
+        }
+        for (int i = CARDS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int c = deck[i];
+            deck[i] = deck[j];
+            deck[j] = c;
+        }
+        for (int s = 0; s < seats; s++) {
+            hand[s] = 0;
+        }
+        for (int i = 0; i < CARDS; i++) {
+            hand[i % seats] |= 1L << deck[i];
+        }
+        pile = 0;
+        lastPlay = 0;
+        lastSeat = -1;
+        lastRank = 0;
+        rank = 0;
+        winner = -1;
+        history.clear();
+    }
+
+    public String apply(int seat, String in, int from) {
+        if (winner >= 0 || history.size() >= maxTurns) {
+            return "The game is over";
+        }
+        int length = in.length() - from;
+        char call = length > 0 ? in.charAt(from) : ' ';
+        long cards = 0;
+        boolean valid = (call == 'P' | call == 'B') && length >= 2 && length <= 1 + CARDS / 4;
+        for (int i = from + 1; valid && i < in.length(); i++) {
+            int digit = Character.digit(in.charAt(i), 16);
+            if (digit < 0) {
+                valid = false;
+            }
+            cards = cards << 4 | digit;
+        }
+        if (!valid) {
+            return in.substring(from) + " is not a valid play";
+        }
+        int count = Long.bitCount(cards);
+        if (count < 1 || count > MAX_PLAY) {
+            return "A play is 1 to " + MAX_PLAY + " cards, not " + count;
+        }
+        if ((cards & ~hand[seat]) != 0) {
+            return in.substring(from) + " plays cards not in hand";
+        }
+        if (call == 'B' && lastPlay == 0) {
+            return "There is no claim to call";
+        }
+        play(seat, call == 'B', cards);
+        return null;
+    }
+
+    // Settle the call, if any, then put cards on the pile unless the claim
+    // just accepted has won the game.
+    private void play(int seat, boolean call, long cards) {
+        if (call) {
+            boolean truth = (lastPlay & ~RANK_MASK[lastRank]) == 0;
+            hand[truth ? seat : lastSeat] |= pile;
+            pile = 0;
+        }
+        history.add(Long.bitCount(cards) + (call ? 10 : 0));
+        if (lastSeat >= 0 && hand[lastSeat] == 0) {
+            winner = lastSeat;
+            return;
+        }
+        hand[seat] &= ~cards;
+        pile |= cards;
+        lastPlay = cards;
+        lastSeat = seat;
+        lastRank = rank;
+        rank = (rank + 1) % RANKS;
+    }
+
+    public int getWinner() {
+        return winner;
+    }
+
+    public boolean isWin(int seat) {
+        return winner == seat;
+    }
+
+    public boolean isDraw() {
+        return winner < 0 && history.size() >= maxTurns;
+    }
+
+    // Accept the claim and play one card at random, which is a lie more
+    // often than not.
+    public void randomMove(int seat, Random random) {
+        long cards = hand[seat];
+        for (int skip = random.nextInt(Long.bitCount(cards)); skip > 0; skip--) {
+            cards &= cards - 1;
+        }
+        play(seat, false, Long.lowestOneBit(cards));
+    }
+
+    public int getMoveCount() {
+        return history.size();
+    }
+
+    // Cards in the claim which may be called, "-1" if there is none.
+    public String getLastMove() {
+        return NAMES[Long.bitCount(lastPlay)];
+    }
+
+    public String getView(int seat) {
+        view.setLength(0);
+        view.append(seat).append(';').append(rank).append(';').append(Long.toHexString(hand[seat]))
+                .append(';').append(lastPlay == 0 ? -1 : lastSeat).append(';').append(Long.bitCount(lastPlay))
+                .append(';').append(Long.bitCount(pile)).append(';');
+        for (int s = 0; s < seats; s++) {
+            if (s > 0) {
+                view.append(',');
+            }
+            view.append(Long.bitCount(hand[s]));
+        }
+        return view.toString();
+    }
+
+    // Positions are not keyed: nothing is learnt from one game for the next.
+    public long getPositionKey() {
+        return 0;
+    }
+
+    public String[] listMoves() {
+        return null;
+    }
+
+    public String getRecord() {
+        return history.toString();
+    }
+
+    // Cards seat holds, for simulations which check the engine.
+    public long getHand(int seat) {
+        return hand[seat];
+    }
+
+    public long getPile() {
+        return pile;
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * BullshitServer starts a game server for the Bullshit challenge.  It is the
+ * generic GameServer with cw.challenges set to BullshitServer.BullshitChallenge
+ * unless the command line already chose the challenges, and takes the same
+ * arguments (log4j configuration and challenge interval).
+ */
+
+package BullshitServer;
+
+import cw_generic.GameServer;
+
+public class BullshitServer {
+
+    public static void main(String args[]) throws Exception {
+        if (System.getProperty("cw.challenges") == null) {
+            System.setProperty("cw.challenges", BullshitChallenge.class.getName());
+        }
+        GameServer.main(args);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * The UnderCut challenge, PUBLIC_UNDERCUT on the switch.  A game lasts
+ * cw.undercut.rounds rounds (default 100).
+ */
+
+package UnderCut;
+
+import cw_generic.ChallengeType;
+import cw_generic.GameRules;
+import cw_generic.HouseEngine;
+import cw_generic.ServerConfig;
+
+public class UnderCutChallenge implements ChallengeType {
+    private final int rounds = Math.max(1, ServerConfig.getInt("undercut.rounds", 100));
+
+    public String getName() {
+        return "PUBLIC_UNDERCUT";
+    }
+
+    public String getKey() {
+        return "123456";
+    }
+
+    public int getPlayers() {
+        return 2;
+    }
+
+    public GameRules newRules(int seats) {
+        return new UnderCutRules(rounds);
+    }
+
+    public HouseEngine newHouseEngine(int depth) {
+        return null;
+    }
+
+    public boolean hasHouseEngine() {
+        return false;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * UnderCutRules is the UnderCut engine.  Each round both bots secretly pick
+ * a number from 1 to 5.  A bot whose number is exactly one below the other's
+ * has undercut it and scores both numbers; otherwise each bot scores its own
+ * number.  After the configured number of rounds the higher score wins, and
+ * equal scores are a draw.
+ *
+ * A bot is told the number its opponent picked in the previous round.  The
+ * game record lists both picks of every round, seat 0 first ("3,4,2,2,...").
+ * Scoring a round touches a handful of ints and never allocates, so a match
+ * of hundreds of rounds costs little more than its messages.
+ */
+
+package UnderCut;
+
+import java.util.Random;
+
+import cw_generic.MoveHistory;
+import cw_generic.SimultaneousRules;
+
+public class UnderCutRules implements SimultaneousRules {
+    public static final int MAX = 5;            // Highest number a bot may pick
+    private static final String[] NAMES = {"-1", "1", "2", "3", "4", "5"};   // Shared so getLastMove never allocates
+
+    private final int rounds;                   // Rounds in a game
+    private final int[] score = new int[2];
+    private final int[] choice = new int[2];    // Picks in the current round, 0 = none yet
+    private final int[] last = new int[2];      // Picks in the previous round, 0 = no round yet
+    private final MoveHistory history;
+    private int played;
+
+    public UnderCutRules(int rounds) {
+        this.rounds = rounds;
+        this.history = new MoveHistory(2 * rounds);
+    }
+
+    public void init(Random random) {
+        for (int seat = 0; seat < 2; seat++) {
+            score[seat] = 0;
+            choice[seat] = 0;
+            last[seat] = 0;
+        }
+        played = 0;
+        history.clear();
+    }
+
+    public String apply(int seat, String in, int from) {
+        if (played >= rounds) {
+            return "The game is over";
+        }
+        if (choice[seat] != 0) {
+            return "Already picked a number this round";
+        }
+        if (in.length() - from != 1 || in.charAt(from) < '1' || in.charAt(from) > '0' + MAX) {
+            return in.substring(from) + " is not a valid play";
+        }
+        choice[seat] = in.charAt(from) - '0';
+        return null;
+    }
+
+    public void resolveRound() {
+        int a = choice[0];
+        int b = choice[1];
+        if (a == b - 1) {
+            score[0] += a + b;
+        } else if (b == a - 1) {
+            score[1] += a + b;
+        } else {
+            score[0] += a;
+            score[1] += b;
+        }
+        history.add(a);
+        history.add(b);
+        last[0] = a;
+        last[1] = b;
+        choice[0] = 0;
+        choice[1] = 0;
+        played++;
+    }
+
+    public boolean isWin(int seat) {
+        return played >= rounds && score[seat] > score[1 - seat];
+    }
+
+    public boolean isDraw() {
+        return played >= rounds && score[0] == score[1];
+    }
+
+    public void randomMove(int seat, Random random) {
+        choice[seat] = random.nextInt(MAX) + 1;
+    }
+
+    // Picks made in resolved rounds, two per round.
+    public int getMoveCount() {
+        return history.size();
+    }
+
+    public String getLastMove() {
+        return NAMES[history.last()];
+    }
+
+    public String getLastMove(int seat) {
+        return NAMES[last[1 - seat]];
+    }
+
+    // Positions are not keyed: nothing is learnt from one game for the next.
+    public long getPositionKey() {
+        return 0;
+    }
+
+    public String[] listMoves() {
+        return null;
+    }
+
+    public String getRecord() {
+        return history.toString();
+    }
+
+    public int getScore(int seat) {
+        return score[seat];
+    }
+
+    public int getRoundsPlayed() {
+        return played;
+    }
+}
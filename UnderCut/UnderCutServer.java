@@ -0,0 +1,20 @@
+/*
+ * UnderCutServer starts a game server for the UnderCut challenge.  It is the
+ * generic GameServer with cw.challenges set to UnderCut.UnderCutChallenge
+ * unless the command line already chose the challenges, and takes the same
+ * arguments (log4j configuration and challenge interval).
+ */
+
+package UnderCut;
+
+import cw_generic.GameServer;
+
+public class UnderCutServer {
+
+    public static void main(String args[]) throws Exception {
+        if (System.getProperty("cw.challenges") == null) {
+            System.setProperty("cw.challenges", UnderCutChallenge.class.getName());
+        }
+        GameServer.main(args);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * The connect four challenge, PUBLIC_CONNECT_FOUR on the switch.  The board
+ * is chosen once with cw.board.rows, cw.board.cols and cw.board.connect
+ * (default 6, 7, 4) and shared by every game.  The house bot plays with a
+ * ConnectFourEngine; the engines share one PositionCache of search results
+ * (cw.house.cache.size entries, default 2^18).
+ */
+
+package connectFourServer;
+
+import cw_generic.BoardGeometry;
+import cw_generic.ChallengeType;
+import cw_generic.GameRules;
+import cw_generic.HouseEngine;
+import cw_generic.PositionCache;
+import cw_generic.ServerConfig;
+
+public class ConnectFourChallenge implements ChallengeType {
+    private final BoardGeometry geometry = BoardGeometry.fromConfig();
+    private final PositionCache results = PositionCache.fromConfig("house.cache", 1<<18);  // Search outcomes shared by the house engines
+    private final int ttBits = Math.max(10, Math.min(26, ServerConfig.getInt("house.ttBits", 20)));  // House engine table: 2^ttBits entries per thread
+
+    public String getName() {
+        return "PUBLIC_CONNECT_FOUR";
+    }
+
+    public String getKey() {
+        return "123456";
+    }
+
+    public int getPlayers() {
+        return 2;
+    }
+
+    public GameRules newRules(int seats) {
+        return new ConnectFourRules(geometry);
+    }
+
+    public HouseEngine newHouseEngine(int depth) {
+        return new ConnectFourEngine(geometry, depth, ttBits, results);
+    }
+
+    public boolean hasHouseEngine() {
+        return true;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * ConnectFourEngine is the house bot's connect four player: a negamax
+ * alpha-beta search with iterative deepening and a transposition table,
+ * stopped at the deadline it is given.  The move of the deepest search that
+ * finished is played, so the engine always answers in time; maxDepth caps
+ * the search and so sets its strength.
+ *
+ * Positions are keyed by Zobrist hashing (one random long per cell and
+ * disc, XORed in as discs are dropped, the same keys as ConnectFourRules)
+ * and the table keeps one entry per slot, always replaced: key, score,
+ * depth, bound and best column.  Columns
+ * are tried centre first, after the table's best column.  Leaves are scored
+ * by how many possible lines run through each side's discs, and wins are
+ * scored so that a quicker win (or a slower loss) is preferred.
+ *
+ * The table belongs to one engine, but the outcome of each search (depth
+ * reached, score and move) also goes into a PositionCache shared by every
+ * engine of the challenge.  Early positions recur in game after game, so a
+ * search first looks there: a result as deep as maxDepth, or a forced one,
+ * is played at once, and a result deeper than the budget allowed this time
+ * is preferred to the new one.  Each visit that gets deeper improves it.
+ */
+
+package connectFourServer;
+
+import cw_generic.BoardGeometry;
+import cw_generic.HouseEngine;
+import cw_generic.PositionCache;
+import cw_generic.ZobristKeys;
+
+public class ConnectFourEngine implements HouseEngine {
+    private static final int WIN = 30000;
+    private static final int INF = 32000;
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+
+    private final BoardGeometry geometry;
+    private final int ROWS;
+    private final int COLS;
+    private final int maxDepth;
+    private final int[] board;          //Cells as in ConnectFourRules: COLS*row+col, disc = seat+1
+    private final int[] height;
+    private final int[] order;          //Columns, centre first
+    private final int[] weight;         //Lines of the board through each cell
+    private final int[] material = new int[2];  //Sum of weight over each seat's discs
+    private final ZobristKeys zobrist;  //Per cell and seat
+    private final PositionCache results;    //Search outcomes shared by all engines, or null
+    private final int ttBits;
+    private final long[] ttKeys;        //Allocated up front, never inside a search's budget
+    private final int[] ttData;
+    private int moves;
+    private long key;
+    private long deadline;
+    private long nodes;
+    private boolean aborted;
+
+    public ConnectFourEngine(BoardGeometry geometry, int maxDepth, int ttBits, PositionCache results){
+        this.geometry = geometry;
+        this.results = results;
+        this.ROWS = geometry.getRows();
+        this.COLS = geometry.getCols();
+        this.maxDepth = maxDepth;
+        this.ttBits = ttBits;
+        this.ttKeys = new long[1<<ttBits];
+        this.ttData = new int[1<<ttBits];
+        this.board = new int[ROWS*COLS];
+        this.height = new int[COLS];
+        this.order = new int[COLS];
+        for(int i=0;i<COLS;i++){
+            //0, +1, -1, +2, -2 ... around the centre column
+            int offset = (i+1)/2;
+            order[i] = (COLS-1)/2 + (i%2==1 ? offset : -offset);
+        }
+        this.weight = new int[ROWS*COLS];
+        int connect = geometry.getConnect();
+        int[][] directions = {{0,1},{1,0},{1,1},{1,-1}};
+        for(int row=0;row<ROWS;row++){
+            for(int col=0;col<COLS;col++){
+                for(int[] d : directions){
+                    int endRow = row+d[0]*(connect-1);
+                    int endCol = col+d[1]*(connect-1);
+                    if(endRow < ROWS && endCol >= 0 && endCol < COLS){
+                        for(int k=0;k<connect;k++){
+                            weight[COLS*(row+d[0]*k)+col+d[1]*k]++;
+                        }
+                    }
+                }
+            }
+        }
+        this.zobrist = ZobristKeys.of(ROWS*COLS, 2);
+    }
+
+    public String chooseMove(String record, long deadline){
+        if(!replay(record)){
+            return null;
+        }
+        this.deadline = deadline;
+        this.aborted = false;
+        this.nodes = 0;
+        int best = -1;
+        for(int i=0;i<COLS && best<0;i++){
+            if(height[order[i]] < ROWS){
+                best = order[i];
+            }
+        }
+        if(best < 0){
+            return null;
+        }
+        long root = key;
+        long known = results == null ? PositionCache.ABSENT : results.get(root);
+        int knownDepth = known == PositionCache.ABSENT ? 0 : (int) (known>>>24);
+        if(knownDepth > 0 && (knownDepth >= maxDepth || forced(((int) known>>>8 & 0xFFFF)-INF))){
+            return String.valueOf((int) known & 0xFF);
+        }
+        int done = 0;
+        int score = 0;
+        for(int depth=1; depth<=maxDepth && depth<=ROWS*COLS-moves; depth++){
+            int s = search(depth, -INF, INF, 0);
+            if(aborted){
+                break;
+            }
+            int slot = (int) key & ((1<<ttBits)-1);
+            if(ttKeys[slot] == key){
+                best = (ttData[slot]>>>26)-1;
+            }
+            done = depth;
+            score = s;
+            if(forced(score)){
+                break;      //Forced result: deeper searches will not change it
+            }
+        }
+        if(done < knownDepth){
+            return String.valueOf((int) known & 0xFF);
+        }
+        if(results != null && done > knownDepth){
+            results.put(root, (long) done<<24 | (long) (score+INF)<<8 | (best+1));
+        }
+        return String.valueOf(best+1);
+    }
+
+    private boolean forced(int score){
+        return Math.abs(score) > WIN-ROWS*COLS;
+    }
+
+    // Set the board up from a game record ("4,3,4,5"); false if it is not a
+    // legal game.
+    private boolean replay(String record){
+        for(int i=0;i<board.length;i++){
+            board[i] = 0;
+        }
+        for(int i=0;i<COLS;i++){
+            height[i] = 0;
+        }
+        material[0] = 0;
+        material[1] = 0;
+        moves = 0;
+        key = 0;
+        int move = 0;
+        for(int i=0;i<=record.length();i++){
+            char c = i<record.length() ? record.charAt(i) : ',';
+            if(c >= '0' && c <= '9'){
+                move = move*10+(c-'0');
+            }else if(c == ','){
+                if(move < 1 || move > COLS || height[move-1] == ROWS){
+                    return i==record.length() && i==0;
+                }
+                drop(move-1);
+                move = 0;
+            }else{
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Drop a disc for the side to move; returns its cell.
+    private int drop(int col){
+        int side = moves&1;
+        int cell = COLS*height[col]+col;
+        board[cell] = side+1;
+        height[col]++;
+        moves++;
+        material[side] += weight[cell];
+        key ^= zobrist.key(cell, side);
+        return cell;
+    }
+
+    private void undo(int col, int cell){
+        moves--;
+        int side = moves&1;
+        board[cell] = 0;
+        height[col]--;
+        material[side] -= weight[cell];
+        key ^= zobrist.key(cell, side);
+    }
+
+    // Negamax score of the position for the side to move.  The clock is
+    // read every 32 nodes, a few microseconds of search.
+    private int search(int depth, int alpha, int beta, int ply){
+        if((++nodes & 31) == 0 && System.nanoTime() > deadline){
+            aborted = true;
+        }
+        if(aborted){
+            return 0;
+        }
+        if(moves == ROWS*COLS){
+            return 0;
+        }
+        int slot = (int) key & ((1<<ttBits)-1);
+        int ttCol = -1;
+        if(ttKeys[slot] == key){
+            int data = ttData[slot];
+            ttCol = (data>>>26)-1;
+            if(((data>>>16)&0xFF) >= depth){
+                int score = fromTable((data&0xFFFF)-INF, ply);
+                int bound = (data>>>24)&3;
+                if(bound == EXACT){
+                    return score;
+                }else if(bound == LOWER){
+                    alpha = Math.max(alpha, score);
+                }else{
+                    beta = Math.min(beta, score);
+                }
+                if(alpha >= beta){
+                    return score;
+                }
+            }
+        }
+        if(depth == 0){
+            int side = moves&1;
+            return material[side]-material[1-side];
+        }
+        int alphaOrig = alpha;
+        int best = -INF;
+        int bestCol = -1;
+        int player = (moves&1)+1;
+        for(int i=-1;i<COLS;i++){
+            int col = i<0 ? ttCol : order[i];
+            if(col < 0 || (i >= 0 && col == ttCol) || height[col] == ROWS){
+                continue;
+            }
+            int cell = drop(col);
+            int score = geometry.winsAt(board, cell, player) ? WIN-ply : -search(depth-1, -beta, -alpha, ply+1);
+            undo(col, cell);
+            if(aborted){
+                return 0;
+            }
+            if(score > best){
+                best = score;
+                bestCol = col;
+            }
+            if(best > alpha){
+                alpha = best;
+            }
+            if(alpha >= beta){
+                break;
+            }
+        }
+        int bound = best <= alphaOrig ? UPPER : best >= beta ? LOWER : EXACT;
+        ttKeys[slot] = key;
+        ttData[slot] = (toTable(best, ply)+INF) | depth<<16 | bound<<24 | (bestCol+1)<<26;
+        return best;
+    }
+
+    // Win scores are stored relative to the position, not the root.
+    private static int toTable(int score, int ply){
+        return score > WIN-1000 ? score+ply : score < -WIN+1000 ? score-ply : score;
+    }
+
+    private static int fromTable(int score, int ply){
+        return score > WIN-1000 ? score-ply : score < -WIN+1000 ? score+ply : score;
+    }
+}
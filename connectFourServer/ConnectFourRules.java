@@ -0,0 +1,171 @@
+/*
+ * ConnectFourRules is the connect four engine: discs drop into one of the
+ * columns 1..cols and the first player with "connect" discs in a row wins.
+ * The board size and win rule come from a shared BoardGeometry (7x6 connect
+ * four unless cw.board.* says otherwise).  A disc is recorded as seat + 1 so
+ * that 0 stays an empty cell.
+ *
+ * After a move only the lines through the disc just played are checked
+ * (BoardGeometry.winsAt); -Dcw.board.winCheck=scan checks every line of the
+ * board instead.  The position's Zobrist key is updated with each disc, with
+ * the same keys the house engine uses.
+ */
+
+package connectFourServer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import cw_generic.BoardGeometry;
+import cw_generic.GameRules;
+import cw_generic.MoveHistory;
+import cw_generic.ServerConfig;
+import cw_generic.ZobristKeys;
+
+public class ConnectFourRules implements GameRules {
+    private static final boolean SCAN_WIN_CHECK = ServerConfig.getString("board.winCheck", "lastMove").equals("scan");
+    private static final String[] MOVE_NAMES = new String[128];  //Shared so getLastMove never allocates
+
+    static {
+        for(int i=0;i<MOVE_NAMES.length;i++){
+            MOVE_NAMES[i]=String.valueOf(i);
+        }
+    }
+
+    private final BoardGeometry geometry;   //Board size and win lines, shared by all games on this board
+    private final int ROWS;
+    private final int COLS;
+    private final int moves[];              //Board as an array of ROWS*COLS positions (0-41 classic)
+    private final int height[];             //Piece "height" in each slot
+    private final MoveHistory history;      //Columns played, in order (1-COLS)
+    private int lastCell;                   //Cell of the last disc placed
+    private final ZobristKeys zobrist;      //Per cell and seat
+    private long key;                       //Zobrist key of the board
+
+    public ConnectFourRules(BoardGeometry geometry){
+        this.geometry = geometry;
+        this.ROWS = geometry.getRows();
+        this.COLS = geometry.getCols();
+        this.moves = new int[ROWS*COLS];
+        this.height = new int[COLS];
+        this.history = new MoveHistory(ROWS*COLS);
+        this.zobrist = ZobristKeys.of(ROWS*COLS, 2);
+    }
+
+    public void init(Random random){
+        Arrays.fill(moves, 0);    //Zero represents an open position
+        Arrays.fill(height, 0);
+        history.clear();
+        key = 0;
+    }
+
+    public String apply(int seat, String in, int from){
+        int move=0;
+        boolean numeric = from < in.length() && in.length() - from <= 9;
+        for(int i=from;numeric && i<in.length();i++){
+            char c=in.charAt(i);
+            if(c<'0' || c>'9'){
+                numeric=false;
+            }else{
+                move=move*10+(c-'0');
+            }
+        }
+        if(!numeric){
+            return in.substring(from) + " is not a valid play";
+        }
+        return drop(seat, move);
+    }
+
+    // If a move is valid, record it on the board.
+    private String drop(int seat, int move){
+        //is the move valid (1-COLS)
+        if(move < 1 | move > COLS){
+            return move + " is not a valid play";
+        }
+        //is the move legal (column not full)
+        int col = move-1; //First column is 0;
+        if (height[col]+1 > ROWS){
+            return "Column "+move+" is already full";
+        }
+        lastCell = COLS * height[col]+col;
+        moves[lastCell] = seat+1;
+        key ^= zobrist.key(lastCell, seat);
+        height[col]++;
+        history.add(move);
+        return null;
+    }
+
+    public boolean isWin(int seat){
+        //No one can have a line before 2*connect-1 moves (7 in connect four)
+        if(history.size()<2*geometry.getConnect()-1){
+            return false;
+        }
+        //Any new line runs through the disc just played.
+        return SCAN_WIN_CHECK ? geometry.hasLine(moves, seat+1) : geometry.winsAt(moves, lastCell, seat+1);
+    }
+
+    public boolean isDraw(){
+        for(int i=0; i<COLS;i++){
+            if(height[i]<ROWS){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The protocol test's move: one of the columns which are not full, each
+    // as likely as the others.
+    public void randomMove(int seat, Random random){
+        int open = 0;
+        for(int col=0;col<COLS;col++){
+            if(height[col]<ROWS){
+                open++;
+            }
+        }
+        if(open == 0){
+            return;
+        }
+        int pick = random.nextInt(open);
+        for(int col=0;col<COLS;col++){
+            if(height[col]<ROWS && pick-- == 0){
+                drop(seat, col+1);
+                return;
+            }
+        }
+    }
+
+    public int getMoveCount(){
+        return history.size();
+    }
+
+    public long getPositionKey(){
+        return key;
+    }
+
+    // The columns which are not full, left to right.
+    public String[] listMoves(){
+        int open = 0;
+        for(int col=0;col<COLS;col++){
+            if(height[col]<ROWS){
+                open++;
+            }
+        }
+        String[] list = new String[open];
+        for(int col=0, i=0;col<COLS;col++){
+            if(height[col]<ROWS){
+                list[i++] = MOVE_NAMES[col+1];
+            }
+        }
+        return list;
+    }
+
+    public String getLastMove(){
+        if(history.size()>0)
+            return MOVE_NAMES[history.last()];
+        return "-1";
+    }
+
+    public String getRecord(){
+        return history.toString();
+    }
+}
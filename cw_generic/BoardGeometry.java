@@ -0,0 +1,175 @@
+/*
+ * BoardGeometry describes a connect-N board: its size and the number of
+ * discs in a row that win.  The classic challenge is 7 columns by 6 rows,
+ * connect 4; variants such as 8x7 or 9x7 connect 5 are chosen with
+ * cw.board.cols, cw.board.rows and cw.board.connect.
+ *
+ * Cells are numbered cols * row + col, row 0 being the bottom row.  The
+ * table of every line of "connect" cells on which a game can be won is
+ * generated once per geometry and shared by all games on that board (of()
+ * caches geometries), so a new game allocates no map of its own.  The lines
+ * are stored in one flat array, line i occupying
+ * lines[i * connect .. i * connect + connect - 1].
+ *
+ * For the last-move check each cell also has its own index of the lines
+ * through it: for each of the four axes, the cells up to connect-1 steps
+ * away in either direction (-1 past the edge).  winsAt() counts the run of
+ * equal cells outward from the disc just played along each axis, which
+ * reads at most 8 * (connect-1) cells whatever the size of the board.
+ */
+
+package cw_generic;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+public class BoardGeometry {
+    private static final ConcurrentMap<String, BoardGeometry> geometries = new ConcurrentHashMap<String, BoardGeometry>();
+
+    public static final BoardGeometry CLASSIC = of(6, 7, 4);
+
+    private final int rows;
+    private final int cols;
+    private final int connect;
+    private final int[] lines;
+    private final int lineCount;
+    private final int[] rays;           // [(cell * 8 + direction) * (connect-1) + step]
+
+    private BoardGeometry(int rows, int cols, int connect) {
+        if (rows < 1 || cols < 1 || cols > 127 || connect < 2 || (connect > rows && connect > cols)) {
+            throw new IllegalArgumentException("No connect " + connect + " game fits on " + cols + "x" + rows);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.connect = connect;
+        this.lines = buildLines();
+        this.lineCount = lines.length / connect;
+        this.rays = buildRays();
+    }
+
+    // The shared geometry for a board of rows x cols, connect in a row to win.
+    public static BoardGeometry of(int rows, int cols, int connect) {
+        String key = rows + "x" + cols + "/" + connect;
+        BoardGeometry g = geometries.get(key);
+        if (g == null) {
+            g = new BoardGeometry(rows, cols, connect);
+            BoardGeometry old = geometries.putIfAbsent(key, g);
+            if (old != null) {
+                g = old;
+            }
+        }
+        return g;
+    }
+
+    // The geometry chosen by cw.board.rows, cw.board.cols and cw.board.connect.
+    public static BoardGeometry fromConfig() {
+        return of(ServerConfig.getInt("board.rows", 6), ServerConfig.getInt("board.cols", 7),
+                ServerConfig.getInt("board.connect", 4));
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getConnect() {
+        return connect;
+    }
+
+    public int getCells() {
+        return rows * cols;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int cell(int row, int col) {
+        return cols * row + col;
+    }
+
+    // True if some line is entirely made of cells equal to player.
+    public boolean hasLine(int[] board, int player) {
+        int[] l = lines;
+        for (int i = 0; i < l.length; i += connect) {
+            int j = 0;
+            while (j < connect && board[l[i + j]] == player) {
+                j++;
+            }
+            if (j == connect) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True if the disc of player in cell is part of a line.  Only lines
+    // through cell are looked at, so this is the whole win check as long as
+    // it runs after every move.
+    public boolean winsAt(int[] board, int cell, int player) {
+        int reach = connect - 1;
+        int base = cell * 8 * reach;
+        for (int axis = 0; axis < 4; axis++) {
+            int run = 1;
+            for (int side = 0; side < 2; side++) {
+                for (int k = 0; k < reach; k++) {
+                    int c = rays[base + k];
+                    if (c < 0 || board[c] != player) {
+                        break;
+                    }
+                    run++;
+                }
+                base += reach;
+            }
+            if (run >= connect) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Horizontal, vertical and both diagonal lines, in that order.
+    private int[] buildLines() {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};     // {row step, col step}
+        int[] out = new int[4 * rows * cols * connect];
+        int n = 0;
+        for (int[] d : directions) {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    int endRow = row + d[0] * (connect - 1);
+                    int endCol = col + d[1] * (connect - 1);
+                    if (endRow < 0 || endRow >= rows || endCol < 0 || endCol >= cols) {
+                        continue;
+                    }
+                    for (int k = 0; k < connect; k++) {
+                        out[n++] = cell(row + d[0] * k, col + d[1] * k);
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Directions 2*axis and 2*axis+1 are the two senses of the same axis.
+    private int[] buildRays() {
+        int[][] directions = {{0, 1}, {0, -1}, {1, 0}, {-1, 0}, {1, 1}, {-1, -1}, {1, -1}, {-1, 1}};
+        int reach = connect - 1;
+        int[] out = new int[rows * cols * 8 * reach];
+        int n = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                for (int[] d : directions) {
+                    for (int k = 1; k <= reach; k++) {
+                        int r = row + d[0] * k;
+                        int c = col + d[1] * k;
+                        out[n++] = r < 0 || r >= rows || c < 0 || c >= cols ? -1 : cell(r, c);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The BoundedQueue wraps a capacity limited BlockingQueue and applies an
+ * OverloadPolicy whenever a producer finds it full.  enqueue() returns false
+ * for an element the policy dropped; producers of elements which may be
+ * dropped (see the Shedders) use it and release what was dropped.  add()
+ * never drops silently: it waits for space, and throws IllegalStateException
+ * if the policy would drop the element.  offer() and put() keep their normal
+ * BlockingQueue meaning for callers which need it; a producer which must not
+ * wait offers first and asks drops() what to do with an element that did
+ * not fit.
+ */
+
+package cw_generic;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BoundedQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private final String name;
+    private final BlockingQueue<E> delegate;
+    private final OverloadPolicy policy;
+    private final Shedder<? super E> shedder;
+    private final Shedder<? super E> rejecter;
+
+    // Decides which elements may be dropped: low priority ones under SHED
+    // and REJECT (the shedder), new requests under REJECT (the rejecter).
+    public interface Shedder<E> {
+        boolean isSheddable(E e);
+    }
+
+    public BoundedQueue(String name, BlockingQueue<E> delegate, OverloadPolicy policy, Shedder<? super E> shedder, Shedder<? super E> rejecter) {
+        this.name = name;
+        this.delegate = delegate;
+        this.policy = policy;
+        this.shedder = shedder;
+        this.rejecter = rejecter;
+    }
+
+    // Queue e, or drop it if the queue is full and the policy allows.
+    // Returns false if e was shed or rejected.
+    public boolean enqueue(E e) {
+        if (delegate.offer(e)) {
+            return true;
+        }
+        if (drops(e)) {
+            return false;
+        }
+        ServerMetrics.increment(name + ".blocked");
+        try {
+            delegate.put(e);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    // True if the policy drops e from the full queue rather than wait for
+    // space; the drop is counted.
+    public boolean drops(E e) {
+        if (policy == OverloadPolicy.REJECT && rejecter != null && rejecter.isSheddable(e)) {
+            ServerMetrics.increment(name + ".rejected");
+            return true;
+        }
+        if (policy != OverloadPolicy.BLOCK && shedder != null && shedder.isSheddable(e)) {
+            ServerMetrics.increment(name + ".shed");
+            return true;
+        }
+        return false;
+    }
+
+    // drops() for any queue: one which is not a BoundedQueue never drops.
+    @SuppressWarnings("unchecked")  // A BoundedQueue of E's holds E's
+    public static <E> boolean drops(BlockingQueue<E> queue, E e) {
+        return queue instanceof BoundedQueue && ((BoundedQueue<E>) queue).drops(e);
+    }
+
+    // enqueue() for any queue: one which is not a BoundedQueue never drops.
+    @SuppressWarnings("unchecked")  // A BoundedQueue of E's holds E's
+    public static <E> boolean enqueue(BlockingQueue<E> queue, E e) {
+        if (queue instanceof BoundedQueue) {
+            return ((BoundedQueue<E>) queue).enqueue(e);
+        }
+        return queue.add(e);
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (!enqueue(e)) {
+            throw new IllegalStateException(name + " is full");
+        }
+        return true;
+    }
+
+    public boolean offer(E e) {
+        return delegate.offer(e);
+    }
+
+    public void put(E e) throws InterruptedException {
+        delegate.put(e);
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.offer(e, timeout, unit);
+    }
+
+    public E poll() {
+        return delegate.poll();
+    }
+
+    public E take() throws InterruptedException {
+        return delegate.take();
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.poll(timeout, unit);
+    }
+
+    public E peek() {
+        return delegate.peek();
+    }
+
+    public int size() {
+        return delegate.size();
+    }
+
+    public int remainingCapacity() {
+        return delegate.remainingCapacity();
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return delegate.drainTo(c);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        return delegate.drainTo(c, maxElements);
+    }
+
+    public Iterator<E> iterator() {
+        return delegate.iterator();
+    }
+}
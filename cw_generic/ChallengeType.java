@@ -0,0 +1,35 @@
+/*
+ * A ChallengeType is one game a game server process can host.  It names the
+ * challenge for the switch (the REGISTER line) and makes a fresh GameRules
+ * engine for every game.  The process hosts the challenges listed in
+ * cw.challenges, a comma separated list of ChallengeType class names
+ * (default connectFourServer.ConnectFourChallenge); each gets its own
+ * GameServer with its own queues, CommandProcessor and switch connections,
+ * so a slow game never holds up another one on the same machine.
+ */
+
+package cw_generic;
+
+public interface ChallengeType {
+
+    // Challenge name the switch knows, e.g. PUBLIC_CONNECT_FOUR.
+    String getName();
+
+    // Key the switch expects with the name.
+    String getKey();
+
+    // Bots in one game.  Protocol tests and games against a human from the
+    // web interface always have two seats.
+    int getPlayers();
+
+    // A new engine for one game of seats players.
+    GameRules newRules(int seats);
+
+    // The challenge's own player for the HouseBot, searching at most depth
+    // moves ahead, or null if the challenge has none.
+    HouseEngine newHouseEngine(int depth);
+
+    // True if newHouseEngine makes engines.  Engines can be big (a search
+    // table), so ask this rather than build one to find out.
+    boolean hasHouseEngine();
+}
@@ -0,0 +1,34 @@
+/*
+ * The Clock class is the single source of wall-clock time for game server
+ * logic (output expiry, purge decisions).  By default it simply returns
+ * System.currentTimeMillis().  The simulation harness installs a virtual
+ * clock so that timing dependent behaviour can be replayed deterministically
+ * and hours of traffic can be simulated in seconds.
+ */
+
+package cw_generic;
+
+public abstract class Clock {
+    private static volatile Clock current = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    public abstract long millis();
+
+    public static long now() {
+        return current.millis();
+    }
+
+    public static Clock get() {
+        return current;
+    }
+
+    // Replace the process wide clock.  Only the simulation harness should call
+    // this, and only before any game server logic runs.
+    public static void set(Clock clock) {
+        current = clock;
+    }
+}
@@ -19,45 +19,108 @@
  * to “0” (zero), no response time is enforced or even required.
  * SERVER_MESSAGE commands will always have the actionTime parameter set
  * to zero as a bot response is never required.
+ *
+ * Like commands, packs on the hot path come from obtain() and are handed back
+ * with release() by whoever consumes them last: the CommandSender once it
+ * has written a pack the OutboundJournal does not keep, or the journal once
+ * the pack is acknowledged or superseded.  A pooled pack owns its command and
+ * releases it too.
  */
 package cw_generic;
 
  public class CmdPack{
+        private static final ObjectPool<CmdPack> pool = new ObjectPool<CmdPack>(ServerConfig.getInt("pool.size", 4096));
+
         public Command cmd;
+        private boolean pooled;     // Came from obtain(); may go back to the pool
+        private boolean released;   // Sitting in the pool
         private int bid;        
-        private String cString;
+        private long actionTime;
+        private String payload;     // Metadata before routing information was added
+
+        // The routing prefix ("bid:actionTime:") and the web form ("TYPE<<meta")
+        // are not built here.  SwitchWriter writes the prefix field by field and
+        // getOutPack builds the web string, so a pack for a bot costs no string
+        // concatenation at all.
 
         // Used to send command to the switch (no additional forwarding required)
         public CmdPack(Command cmd){
             this.cmd = cmd;
+            this.payload = cmd.getMetaData();
         }
 
         // Send command to a bot without a time requirement (actionTime=0)
         public CmdPack(Command cmd, int bid){
             this.cmd = cmd;
             this.bid = bid;            
-            this.cString = cmd.getCommandType()+"<<"+cmd.getMetaData();
-            if(bid>0){
-                this.cmd.setMetaData(bid+":0:"+cmd.getMetaData());
-            }
+            this.payload = cmd.getMetaData();
         }
 
         // Send cmd to bot and require a response within actionTime (milliseconds)
         public CmdPack(Command cmd, int bid, long actionTime){
             this.cmd = cmd;
             this.bid = bid;            
-            this.cString = cmd.getCommandType()+"<<"+cmd.getMetaData();
-            if(bid>0){
-                this.cmd.setMetaData(bid+":"+actionTime+":"+cmd.getMetaData());
-            }
+            this.actionTime = actionTime;
+            this.payload = cmd.getMetaData();
         }
         
+        private CmdPack(){
+        }
+
+        // A pack for cmd from the pool, or a new one if the pool is empty.
+        // The pack takes over cmd, which should itself come from
+        // Command.obtain().
+        public static CmdPack obtain(Command cmd, int bid, long actionTime){
+            CmdPack p = pool.poll();
+            if(p == null){
+                p = new CmdPack();
+                p.pooled = true;
+            }
+            p.cmd = cmd;
+            p.bid = bid;
+            p.actionTime = actionTime;
+            p.payload = cmd.getMetaData();
+            p.released = false;
+            return p;
+        }
+
+        // Hand a pack from obtain(), and its command, back to the pool.
+        // Releasing the same pack twice is harmless; other packs are left
+        // alone.
+        public void release(){
+            if(!pooled || released){
+                return;
+            }
+            released = true;
+            cmd.release();
+            cmd = null;
+            payload = null;
+            pool.offer(this);
+        }
+
         public int getBID(){
             return bid;
         }
 
+        public long getActionTime(){
+            return actionTime;
+        }
+
+        public String getPayload(){
+            return payload;
+        }
+
+        // The command as the switch sees it: bot bound commands carry
+        // "bid:actionTime:" in front of the metadata.
+        public String getRoutedMetaData(){
+            if(bid>0){
+                return bid+":"+actionTime+":"+payload;
+            }
+            return payload;
+        }
+
         public OutputPack getOutPack(){
-            return new OutputPack(this.bid, this.cString);
+            return new OutputPack(this.bid, cmd.getCommandType()+"<<"+payload);
         }
 
     }
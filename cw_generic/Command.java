@@ -20,22 +20,29 @@
  * SERVER_MESSAGE commands will always have the actionTime parameter set
  * to zero as a bot response is never required.
  *
- * The Command object class is common for the switch and the game servers.
- * Additional parameters such as IP and port are required by the switch for
- * command forwarding to bots.
+ * All commands reach the game server over the switch connection, so a
+ * command carries no address of its own; the bid in the metadata says which
+ * bot it belongs to.
+ *
+ * Commands on the hot path come from obtain() and go back with release() once
+ * they have been processed or written, so they are reused instead of
+ * allocated per message.  Commands made with "new" are never pooled and
+ * release() ignores them.  After release() a command must not be touched
+ * again by whoever released it.
  */
 
 package cw_generic;
 
-import java.net.*;
-
-
 public class Command {
     
+    private static final ObjectPool<Command> pool = new ObjectPool<Command>(ServerConfig.getInt("pool.size", 4096));
+
     private String cmdType;
     private String metaData;
-    private InetAddress targetIP;
-    private int targetPort;   
+    private int bid;
+    private boolean bidKnown;     // True once bid has been parsed or set
+    private boolean pooled;       // Came from obtain(); may go back to the pool
+    private boolean released;     // Sitting in the pool
 
     public String getCommandType (){
         return cmdType;
@@ -45,22 +52,6 @@ public class Command {
         cmdType = value;
     }
     
-    public InetAddress getIP (){
-        return targetIP;
-    }
-
-    public void setIP (InetAddress value){
-        targetIP = value;
-    }    
-    
-    public int getPort (){
-        return targetPort;
-    }
-
-    public void setPort (int value){
-        targetPort = value;
-    }
-    
     public String getMetaData (){
         return metaData;
     }
@@ -69,21 +60,6 @@ public class Command {
         metaData = value;
     }
             
-    public Command(String type, InetAddress IP, int port, String metaData)
-    {
-        this.cmdType = type;
-        this.targetIP = IP;
-        this.targetPort = port;
-        this.metaData = metaData;
-    }
-
-    public Command(InetAddress IP, int port, String metaData)
-    {
-        this.targetIP = IP;
-        this.targetPort = port;
-        this.metaData = metaData;
-    }
-        
     public Command(String type, String metaData)
     {
         this.cmdType = type;
@@ -101,16 +77,74 @@ public class Command {
         this.metaData = "";
     }
 
+    // A command from the pool, or a new one if the pool is empty.
+    public static Command obtain(String type, String metaData){
+        Command c = pool.poll();
+        if(c == null){
+            c = new Command(type, metaData);
+            c.pooled = true;
+            return c;
+        }
+        c.cmdType = type;
+        c.metaData = metaData;
+        c.bidKnown = false;
+        c.released = false;
+        return c;
+    }
+
+    // Hand a command from obtain() back to the pool.  Releasing the same
+    // command twice is harmless; other commands are left alone.
+    public void release(){
+        if(!pooled || released){
+            return;
+        }
+        released = true;
+        cmdType = null;
+        metaData = null;
+        pool.offer(this);
+    }
+
     // Incomming commands from the switch always have a bid inserted to the head
     // of the metaData.  getBID simply returns this value.  If not, do work.
     public int getBID(){
-        try{
-            String[] parts = metaData.split(":");
-            int bid = Integer.parseInt(parts[0]);
+        if(bidKnown){
             return bid;
-         }catch(Exception e){
+        }
+        // Parsed by hand: this runs for every inbound command and must not
+        // allocate.
+        int end = metaData.indexOf(':');
+        if(end < 0){
+            end = metaData.length();
+        }
+        if(end == 0 || end > 10){
             return -1;
         }
+        int start = metaData.charAt(0) == '-' ? 1 : 0;
+        if(start == end){
+            return -1;
+        }
+        long value = 0;
+        for(int i = start; i < end; i++){
+            char c = metaData.charAt(i);
+            if(c < '0' || c > '9'){
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        if(start == 1){
+            value = -value;
+        }
+        if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE){
+            return -1;
+        }
+        return (int) value;
+    }
+
+    // Binary frames carry the bid in its own field; remember it so it never
+    // has to be parsed out of the metadata.
+    public void setBID(int bid){
+        this.bid = bid;
+        this.bidKnown = true;
     }
 
 }
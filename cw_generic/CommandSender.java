@@ -9,6 +9,12 @@
  * contains valid commands.  It is important to remember that commands sent to
  * the switch will not match the online bot documentation because of the
  * addition of the bid/routing parameter in the metadata.
+ * Whatever has piled up in the sendQueue (up to cw.sendQueue.batch packs) is
+ * taken at once and written with a single flush, so the burst of messages one
+ * command produces (an EXECUTE_PROCEDURE and two GAME_REPORTs, say)
+ * costs one socket write instead of several.
+ * Once written, every pack goes back to its pool unless the OutboundJournal
+ * has kept it.
  */
 
 package cw_generic;
@@ -18,19 +24,30 @@ import java.util.*;
 import java.util.concurrent.*;
 
 public class CommandSender extends Thread {
-        private PrintWriter out;
-        private CmdPack cmdPack;
-        private String cmdOut;
-        private Command cmd;
-        private Socket socket;
+        private SwitchWriter out;
+        private final List<CmdPack> batch = new ArrayList<CmdPack>();
+        private final List<CmdPack> toSwitch = new ArrayList<CmdPack>();
+        private final int maxBatch = ServerConfig.getInt("sendQueue.batch", 256);
         public BlockingQueue<CmdPack> sendQueue = new LinkedBlockingQueue();
         public List<OutputPack> outQueue = Collections.synchronizedList(new ArrayList<OutputPack>());
         private boolean stop;
+        private OutboundJournal journal;
+        private final String metrics;           // Prefix of the lane's metric names
+        private final String framesMetric;      // Metric names, built once
+        private final String flushesMetric;
+        private final String writtenMetric;
+        private final String writeFailedMetric;
 
-        public CommandSender(Socket socket, BlockingQueue<CmdPack> sendQueue, List<OutputPack> outQueue){
-            this.socket = socket;
+        public CommandSender(SwitchWriter out, BlockingQueue<CmdPack> sendQueue, List<OutputPack> outQueue, OutboundJournal journal, String metrics){
+            this.metrics = metrics;
+            this.framesMetric = metrics + "sendQueue.frames";
+            this.flushesMetric = metrics + "sendQueue.flushes";
+            this.writtenMetric = metrics + "sendQueue.written";
+            this.writeFailedMetric = metrics + "sendQueue.writeFailed";
+            this.out = out;
             this.sendQueue = sendQueue;
             this.outQueue = outQueue;
+            this.journal = journal;
             this.stop = false;
         }
 
@@ -40,18 +57,9 @@ public class CommandSender extends Thread {
 
         @Override
         public void run() {
-            currentThread().setName("CommandSender");
             while (!stop) {
                 try {
-                    cmdPack = sendQueue.take();   //Blocks until commandPack exists
-                    if(cmdPack.getBID()>=0){
-                        cmd = cmdPack.cmd;
-                        out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),"UTF-8")), true);
-                        cmdOut = cmd.getCommandType().toString()+"<<"+cmd.getMetaData();
-                        out.println(cmdOut);
-                    }else{
-                        outQueue.add(cmdPack.getOutPack());
-                    }
+                    sendBatch();
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } catch (NullPointerException e) {
@@ -61,4 +69,52 @@ public class CommandSender extends Thread {
                 }
             }
         }
+
+        // Take whatever is waiting in the sendQueue (blocking until there is
+        // something), write it with one flush and hand every pack to the
+        // journal or back to its pool.  A failed write stops the sender.
+        public void sendBatch() throws InterruptedException {
+            batch.clear();
+            toSwitch.clear();
+            batch.add(sendQueue.take());   //Blocks until commandPack exists
+            sendQueue.drainTo(batch, maxBatch - 1);
+            for (int i = 0; i < batch.size(); i++) {
+                CmdPack cmdPack = batch.get(i);
+                if(cmdPack.getBID()>=0){
+                    toSwitch.add(cmdPack);
+                }else{
+                    OutputPack.offer(outQueue, cmdPack, metrics);
+                }
+            }
+            if(toSwitch.isEmpty()){
+                return;
+            }
+            //A failed write means the link is gone and every pack
+            //in this batch must be resent later.
+            boolean failed = false;
+            //Journal first: a fast answer may be read before
+            //the write returns.
+            for (int i = 0; i < toSwitch.size(); i++) {
+                journal.begin(toSwitch.get(i));
+            }
+            try{
+                ServerMetrics.add(framesMetric, out.writeAll(toSwitch));
+                out.flush();
+            }catch(IOException e){
+                failed = true;
+            }
+            ServerMetrics.increment(flushesMetric);
+            ServerMetrics.add(writtenMetric, toSwitch.size());
+            //Packs the journal keeps are released by the journal.
+            for (int i = 0; i < toSwitch.size(); i++) {
+                CmdPack cmdPack = toSwitch.get(i);
+                if(!journal.record(cmdPack, failed)){
+                    cmdPack.release();
+                }
+            }
+            if(failed){
+                ServerMetrics.increment(writeFailedMetric);
+                stop = true;
+            }
+        }
     }
@@ -0,0 +1,294 @@
+/*
+ * The FairSendQueue replaces the FIFO sendQueue when outbound traffic has to
+ * be shared fairly.  Packs are kept in one FIFO per recipient (bid; 0 is the
+ * switch, negative bids are web users), so the order of messages to any one
+ * recipient never changes.  A recipient waits in the ready ring of the class
+ * of its oldest pack:
+ *   CRITICAL - ACTION_REQUEST and GAME_INITIALIZE, which start a bot's clock.
+ *   CONTROL  - everything else for the switch or a bot (GAME_REPORT,
+ *              GAME_ABORT, EXECUTE_PROCEDURE, DISCONNECT_BOT_REMOTE, ...).
+ *   BULK     - web output and SERVER_MESSAGE chatter.
+ * take() serves the classes by weighted round robin, CRITICAL first: up to
+ * weights[c] packs from class c before moving on to the next class.  Within a
+ * class each recipient gets one pack per turn and then goes to the back of
+ * the ring, so no single bid can monopolise the writer.  The weights come
+ * from cw.sendQueue.weights (default 16,4,1).
+ *
+ * Recipients are found by bid in an IntMap, and one whose FIFO drains is
+ * kept for the next bid to need one, so once the queue has seen as many
+ * recipients at a time as it ever will, queueing and taking a pack
+ * allocate nothing.
+ */
+
+package cw_generic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+public class FairSendQueue extends AbstractQueue<CmdPack> implements BlockingQueue<CmdPack> {
+    public static final int CRITICAL = 0;
+    public static final int CONTROL = 1;
+    public static final int BULK = 2;
+
+    private final IntMap<Recipient> recipients = new IntMap<Recipient>();   // bid -> recipient with packs queued
+    private final ArrayDeque<Recipient> idle = new ArrayDeque<Recipient>();  // Drained recipients, reused for the next bid
+    private final ArrayDeque<Recipient>[] ready;
+    private final int[] weights;
+    private final int capacity;               // 0 = unbounded
+    private int count;
+    private int current;                      // Class being served
+    private int credit;                       // Packs class "current" may still send this round
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    public FairSendQueue(int capacity, int[] weights) {
+        if (weights.length != 3) {
+            throw new IllegalArgumentException("Need 3 class weights, got " + weights.length);
+        }
+        this.capacity = capacity;
+        this.weights = weights.clone();
+        // No generic array can be created; this one only ever holds
+        // ArrayDeque<Recipient>.
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Recipient>[] classes = new ArrayDeque[weights.length];
+        this.ready = classes;
+        for (int c = 0; c < ready.length; c++) {
+            ready[c] = new ArrayDeque<Recipient>();
+            this.weights[c] = Math.max(1, weights[c]);
+        }
+        this.credit = this.weights[0];
+    }
+
+    // Parse "16,4,1" style weights.
+    public static int[] parseWeights(String s) {
+        String[] parts = s.split(",");
+        int[] w = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            w[i] = Integer.parseInt(parts[i].trim());
+        }
+        return w;
+    }
+
+    public static int classOf(CmdPack pack) {
+        if (pack.getBID() < 0) {
+            return BULK;
+        }
+        String type = pack.cmd.getCommandType();
+        if ("ACTION_REQUEST".equals(type) || "GAME_INITIALIZE".equals(type)) {
+            return CRITICAL;
+        }
+        return "SERVER_MESSAGE".equals(type) ? BULK : CONTROL;
+    }
+
+    private static class Recipient {
+        int bid;
+        final ArrayDeque<CmdPack> packs = new ArrayDeque<CmdPack>(4);
+    }
+
+    @Override
+    public boolean offer(CmdPack pack) {
+        if (pack == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            if (capacity > 0 && count >= capacity) {
+                return false;
+            }
+            enqueue(pack);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(CmdPack pack) throws InterruptedException {
+        if (pack == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (capacity > 0 && count >= capacity) {
+                notFull.await();
+            }
+            enqueue(pack);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean offer(CmdPack pack, long timeout, TimeUnit unit) throws InterruptedException {
+        if (pack == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (capacity > 0 && count >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(pack);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(CmdPack pack) {
+        Recipient r = recipients.get(pack.getBID());
+        if (r == null) {
+            r = idle.poll();
+            if (r == null) {
+                r = new Recipient();
+            }
+            r.bid = pack.getBID();
+            recipients.put(r.bid, r);
+        }
+        r.packs.add(pack);
+        if (r.packs.size() == 1) {
+            ready[classOf(pack)].add(r);
+        }
+        count++;
+        notEmpty.signal();
+    }
+
+    // Must hold the lock.
+    private CmdPack dequeue() {
+        if (count == 0) {
+            return null;
+        }
+        // Some class is non-empty, so at most one full turn is needed.
+        while (ready[current].isEmpty() || credit <= 0) {
+            current = (current + 1) % ready.length;
+            credit = weights[current];
+        }
+        credit--;
+        Recipient r = ready[current].poll();
+        CmdPack pack = r.packs.poll();
+        if (r.packs.isEmpty()) {
+            recipients.remove(r.bid);
+            idle.push(r);
+        } else {
+            ready[classOf(r.packs.peek())].add(r);
+        }
+        count--;
+        notFull.signal();
+        return pack;
+    }
+
+    @Override
+    public CmdPack poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CmdPack take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            CmdPack pack;
+            while ((pack = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return pack;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CmdPack poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            CmdPack pack;
+            while ((pack = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return pack;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The pack take() would return next if nothing else arrives.
+    @Override
+    public CmdPack peek() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            int c = current;
+            if (ready[c].isEmpty() || credit <= 0) {
+                do {
+                    c = (c + 1) % ready.length;
+                } while (ready[c].isEmpty());
+            }
+            return ready[c].peek().packs.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        return capacity > 0 ? capacity - size() : Integer.MAX_VALUE;
+    }
+
+    public int drainTo(Collection<? super CmdPack> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super CmdPack> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            CmdPack pack;
+            while (n < maxElements && (pack = dequeue()) != null) {
+                c.add(pack);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Weakly consistent snapshot grouped by class and recipient, not in the
+    // order take() would return the packs.
+    @Override
+    public Iterator<CmdPack> iterator() {
+        lock.lock();
+        try {
+            List<CmdPack> snapshot = new ArrayList<CmdPack>(count);
+            for (int c = 0; c < ready.length; c++) {
+                for (Recipient r : ready[c]) {
+                    snapshot.addAll(r.packs);
+                }
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The FrameCodec implements the optional binary framing of the switch
+ * protocol.  The text protocol sends "TYPE<<bid:actionTime:payload\n" which
+ * has to be scanned for the line end and split twice before anything can be
+ * routed.  A binary frame carries the same information in fixed fields:
+ *
+ *   int   length      number of bytes following this field
+ *   byte  type        command type code (see TYPES), 0 = not in the table
+ *   int   bid         destination/source bot id, NO_BID for switch traffic
+ *   int   actionTime  response deadline in ms (outbound only, 0 otherwise)
+ *   bytes payload     UTF-8 metadata; for type 0 it is "TYPE<<payload"
+ *
+ * All integers are big-endian.  Binary framing is negotiated per connection:
+ * the game server appends ":framing=binary" to its REGISTER line and
+ * switches over only if the switch's first line is "FRAMING<<binary".  Any
+ * other answer ("FRAMING<<text" to decline), or none within
+ * cw.framing.timeout, keeps the text protocol; the game server then sends
+ * a plain REGISTER line, as it would without the offer.
+ *
+ * Several frames for the same destination may be sent as one BATCH frame
+ * whose bid is that destination and whose payload is the complete inner
+ * frames, back to back and in order.  The game server only writes batches;
+ * it never expects to receive one.
+ *
+ * Inbound frames are turned back into the Command the text protocol would
+ * have produced (metadata "bid:payload"), with the bid already filled in so
+ * it never has to be parsed again.
+ */
+
+package cw_generic;
+
+import java.io.*;
+import java.util.*;
+
+public class FrameCodec {
+    public static final int NO_BID = Integer.MIN_VALUE;
+    public static final String FRAMING = "FRAMING<<";
+    public static final String ACCEPT = FRAMING + "binary";
+    public static final String DECLINE = FRAMING + "text";
+    private static final int HEADER = 9;                  // type + bid + actionTime
+    private static final int MAX_FRAME = 1 << 20;
+    private static final String UTF8 = "UTF-8";
+
+    // Codes are part of the wire format: append only, never reorder.
+    private static final String[] TYPES = {
+        null,
+        "REGISTER",
+        "LOGIN_INFORM",
+        "GAME_INITIALIZE",
+        "ACTION_REQUEST",
+        "ACTION_REPLY",
+        "GAME_REPORT",
+        "GAME_ABORT",
+        "DISCONNECT_BOT_REMOTE",
+        "SERVER_MESSAGE",
+        "EXECUTE_PROCEDURE",
+        "SERVER_PING",
+        "SERVER_PONG",
+        "BATCH"
+    };
+    private static final int BATCH = 13;
+    private static final Map<String, Integer> CODES = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 1; i < TYPES.length; i++) {
+            CODES.put(TYPES[i], i);
+        }
+    }
+
+    public static int typeCode(String type) {
+        Integer code = CODES.get(type);
+        return code == null ? 0 : code;
+    }
+
+    // The returned names are the shared constants above, so repeated frames
+    // do not create new type strings.
+    public static String typeName(int code) {
+        return code > 0 && code < TYPES.length ? TYPES[code] : null;
+    }
+
+    public static void writeFrame(DataOutputStream out, String type, int bid, long actionTime, String payload) throws IOException {
+        int code = typeCode(type);
+        if (code != 0 && isAscii(payload)) {
+            // Nearly every payload is plain ASCII; write it without
+            // encoding it into a temporary byte array first.
+            out.writeInt(HEADER + payload.length());
+            out.writeByte(code);
+            out.writeInt(bid);
+            out.writeInt((int) actionTime);
+            out.writeBytes(payload);
+            return;
+        }
+        byte[] body = (code == 0 ? type + "<<" + payload : payload).getBytes(UTF8);
+        out.writeInt(HEADER + body.length);
+        out.writeByte(code);
+        out.writeInt(bid);
+        out.writeInt((int) actionTime);
+        out.write(body);
+    }
+
+    static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Write one BATCH frame holding packs order[from..to-1], all for the same
+    // bid.  The inner frames' lengths are worked out first, so they are
+    // written straight to out without an intermediate buffer.
+    public static void writeBatch(DataOutputStream out, int bid, List<CmdPack> packs, int[] order, int from, int to) throws IOException {
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            CmdPack pack = packs.get(order[i]);
+            length += 4 + frameLength(pack.cmd.getCommandType(), pack.getPayload());
+        }
+        out.writeInt(HEADER + length);
+        out.writeByte(BATCH);
+        out.writeInt(bid);
+        out.writeInt(0);
+        for (int i = from; i < to; i++) {
+            CmdPack pack = packs.get(order[i]);
+            writeFrame(out, pack.cmd.getCommandType(), bid, pack.getActionTime(), pack.getPayload());
+        }
+    }
+
+    // The length field writeFrame writes for type and payload.
+    static int frameLength(String type, String payload) {
+        int code = typeCode(type);
+        return HEADER + (code == 0 ? utf8Length(type) + 2 : 0) + utf8Length(payload);
+    }
+
+    // Bytes in the UTF-8 encoding of s; an unpaired surrogate encodes as '?'.
+    static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n++;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                n++;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
+    // Read one frame.  Returns null at end of stream.
+    public static Command readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < HEADER || length > MAX_FRAME) {
+            throw new IOException("Bad frame length " + length);
+        }
+        int code = in.readUnsignedByte();
+        int bid = in.readInt();
+        in.readInt();   // actionTime is only meaningful on outbound frames
+        byte[] body = new byte[length - HEADER];
+        in.readFully(body);
+        String payload = new String(body, UTF8);
+        String type = typeName(code);
+        if (type == null) {
+            int sep = payload.indexOf("<<");
+            if (sep < 0) {
+                throw new IOException("Frame type " + code + " is not known");
+            }
+            type = payload.substring(0, sep);
+            payload = payload.substring(sep + 2);
+        }
+        Command cmd;
+        if (bid == NO_BID) {
+            cmd = Command.obtain(type, payload);
+        } else {
+            cmd = Command.obtain(type, payload.length() == 0 ? String.valueOf(bid) : bid + ":" + payload);
+            cmd.setBID(bid);
+        }
+        return cmd;
+    }
+
+    // Read one '\n' terminated UTF-8 line straight from the stream, without
+    // buffering ahead, so the stream can continue in binary mode afterwards.
+    // Returns null at end of stream.
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String s = line.toString(UTF8);
+        if (s.endsWith("\r")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s;
+    }
+}
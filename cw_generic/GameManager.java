@@ -1,18 +1,32 @@
 /*
- * The GameManager class implements functions specific to the challenge.
- * Most game server development occurs here and in the game server class.
+ * The GameManager class keeps the state of one game which every challenge
+ * has in common: the bots, which seat each has (seat 0, red, moves first),
+ * whose turn it is, readiness, errors and the messages sent to the bots and
+ * the switch about the game.  The position itself belongs to the challenge's
+ * GameRules engine (ConnectFourRules for connect four), which the GameManager
+ * consults for every move.  Seat 0 of the rules is red, seat 1 black, and
+ * in games of more than two bots turns go round the seats in order.
+ *
+ * Games with SimultaneousRules have no turns.  submitMove() records each
+ * bot's choice, a bot may move once per round, and the round is only
+ * resolved when every choice is in (roundComplete); in a protocol test the
+ * server makes its own choice as soon as the bot has made one.
+ *
+ * The Zobrist key of every position the game has passed through is kept as
+ * the moves are applied (getPositionKey), so finished games can be matched
+ * against positions seen before without replaying them.
+ *
+ * With TableRules each bot is told its own view of the game (its hand and
+ * the public state) and any seat may win after a move, not only the mover.
  */
 
 package cw_generic;
 import java.util.*;
 
 public class GameManager {
-    private int bot1ID;
-    private int bot2ID;
-    private boolean bot1Ready;
-    private boolean bot2Ready;
-    private int red;
-    private int black;
+    private final int[] bots;       //Bids in the order they were paired, 0 for the server in a protocol test
+    private final int[] seats;      //Bids by seat: seats[0] is red
+    private final boolean[] ready;  //Per entry of bots
     private int turn;
     private int victor;
     private String errorText;
@@ -20,26 +34,33 @@ public class GameManager {
     private int errorCode;
     private int rated;
     private int gid;
-    private static int currentgid=1;
+    private static int currentgid=1;      //Shared by the GameServers of all challenges
+    private static Random generator = new Random();  // Shared so a simulation can seed it
 
-     //NEW
-    private int ROWS=6;
-    private int COLS=7;
-    private int moves[];
-    private int map[][];
-    private int height[];
-
-    private Vector gd;  //Store game data as a vector
+    private final GameRules rules;          //The challenge's engine for this game
+    private final SimultaneousRules rounds; //The same engine if all bots move at once, else null
+    private final TableRules table;         //The same engine if bots hold private hands, else null
+    private final boolean[] submitted;      //Seats which have moved this round
+    private long[] positions = new long[64];  //Zobrist keys: positions[i] after i moves
+    private int positionCount;
+    private boolean keyed;                  //False once the rules turn out not to key positions
 
     //Constructor
-    public GameManager(int bot1ID, int bot2ID){
-        this.bot1ID = bot1ID;
-        this.bot1Ready = false;
-        this.bot2ID = bot2ID;
-        this.bot2Ready = false;
-        this.map = loadMap();
-        this.gid = currentgid;
-        currentgid++;
+    public GameManager(int bot1ID, int bot2ID, GameRules rules){
+        this(new int[] {bot1ID, bot2ID}, rules);
+    }
+
+    // A game between all of bots; rules must have been made for that many
+    // seats.
+    public GameManager(int[] bots, GameRules rules){
+        this.bots = bots.clone();
+        this.seats = new int[bots.length];
+        this.ready = new boolean[bots.length];
+        this.submitted = new boolean[bots.length];
+        this.rules = rules;
+        this.rounds = rules instanceof SimultaneousRules ? (SimultaneousRules) rules : null;
+        this.table = rules instanceof TableRules ? (TableRules) rules : null;
+        this.gid = nextGID();
         init();
     }
 
@@ -48,35 +69,52 @@ public class GameManager {
         this.errorBID = 0;
         this.errorCode = 0;
         this.errorText = "";
-        this.gd = new Vector();
-        this.height=new int[COLS];      //Store piece "height" in each slot.
-        this.moves=new int[ROWS*COLS];  //Represent board as an array 0-41 positions.
-        for(int i=0;i<this.moves.length;i++){
-            this.moves[i]=0;  //Zero represents an open position, 1=red, 2=black
-        }
-        for(int i=0;i<this.height.length;i++){
-            this.height[i]=0; //Reset height of each slot to 0;
-        }
+        this.rules.init(generator);
+        this.positionCount = 0;
+        this.keyed = true;
+        keepPosition();
 
-        // If bot2ID==0, then this is a "protocol test" and the game should not
+        // If bots[1]==0, then this is a "protocol test" and the game should not
         // be rated.
-        if(this.bot2ID==0){
-            red=bot1ID;
-            black=bot2ID;
+        System.arraycopy(bots, 0, seats, 0, bots.length);
+        if(bots[1]==0){
             this.rated = 0;
         }else{
             this.rated = 1;
-            // Select a starting player at random.
-            Random generator = new Random();
-            if(generator.nextInt(2)>=1){
-                red=bot1ID;
-                black=bot2ID;
+            // Select a starting player at random; with more than two bots
+            // shuffle all the seats.
+            if(bots.length==2){
+                if(generator.nextInt(2)<1){
+                    seats[0]=bots[1];
+                    seats[1]=bots[0];
+                }
             }else{
-                red=bot2ID;
-                black=bot1ID;
+                for(int i=seats.length-1;i>0;i--){
+                    int j=generator.nextInt(i+1);
+                    int bid=seats[i];
+                    seats[i]=seats[j];
+                    seats[j]=bid;
+                }
             }
         }
-        turn=red;
+        turn=seats[0];
+    }
+
+    // Replace the random source used for starting player selection and
+    // protocol test moves.  A seeded generator makes games reproducible.
+    public static void setRandom(Random random){
+        generator = random;
+    }
+
+    // Restart game id numbering.  Only used by the simulation harness.
+    public static synchronized void resetGameIds(){
+        currentgid = 1;
+    }
+
+    // Game ids are unique in the whole process, whichever challenge's
+    // CommandProcessor creates the game.
+    private static synchronized int nextGID(){
+        return currentgid++;
     }
 
     public int getGID(){
@@ -84,11 +122,31 @@ public class GameManager {
     }
 
     public int getBID1(){
-        return bot1ID;
+        return bots[0];
     }
     public int getBID2(){
-        return bot2ID;
+        return bots[1];
     }
+
+    // Number of bots in the game (2 unless the challenge seats more).
+    public int getPlayerCount(){
+        return bots.length;
+    }
+
+    // The i'th bot paired into the game; getBID(0) is getBID1().
+    public int getBID(int i){
+        return bots[i];
+    }
+    // Bid in seat: getSeatBID(0) is red.
+    public int getSeatBID(int seat){
+        return seats[seat];
+    }
+
+    // The result once the game is over: the winner's bid, 0 for a draw.
+    public int getVictor(){
+        return victor;
+    }
+
     public int getErrorBID(){
         return errorBID;
     }
@@ -96,59 +154,99 @@ public class GameManager {
         return this.errorText;
     }
 
-    //Both bots must echo the "GAME_INITIALIZE" command before before proceeding.
+    //All bots must echo the "GAME_INITIALIZE" command before before proceeding.
     public boolean botsReady(){
-        if(this.bot1Ready & (this.bot2Ready | this.bot2ID==0)){
-            return true;
-        }else{
-            return false;
+        for(int i=0;i<bots.length;i++){
+            if(!ready[i] & bots[i]!=0){
+                return false;
+            }
         }
+        return true;
     }
 
     public void setReady(int bid){
-        if(bot1ID==bid){
-            this.bot1Ready=true;
-        }else{
-            this.bot2Ready=true;
+        for(int i=0;i<bots.length;i++){
+            if(bots[i]==bid){
+                ready[i]=true;
+            }
         }
     }
 
     //Retrieves last move from the game data array.
     public String getLastMove(){
-        if(gd.size()>0)
-            return (String)gd.lastElement().toString();
-        return "-1";
+        return rules.getLastMove();
+    }
+
+    // What bid is told with its next ACTION_REQUEST.
+    public String getLastMove(int bid){
+        if(rounds != null){
+            return rounds.getLastMove(seat(bid));
+        }
+        if(table != null){
+            return table.getView(seat(bid));
+        }
+        return rules.getLastMove();
+    }
+
+    public boolean isSimultaneous(){
+        return rounds != null;
+    }
+
+    // True if the game waits for a move from bid: its turn, or in a
+    // simultaneous game its choice for this round.
+    public boolean isWaitingFor(int bid){
+        if(rounds != null){
+            return isPlayer(bid) && !submitted[seat(bid)];
+        }
+        return turn == bid;
     }
 
     public int getTurn(){
         return turn;
     }
 
+    // The bot to move after the current one.
     public int getOpp(){
-        if (bot1ID==turn)
-            return bot2ID;
-        return bot1ID;
+        return seats[(seat(turn)+1)%seats.length];
+    }
+
+    public boolean isPlayer(int bid){
+        for(int i=0;i<bots.length;i++){
+            if(bots[i]==bid){
+                return true;
+            }
+        }
+        return false;
     }
 
     public int getMoveCount(){
-        return gd.size();
+        return rules.getMoveCount();
+    }
+
+    // Seat of bid in the rules: 0 for red, 1 for black and so on.  A bid
+    // which is not in the game has no seat and is refused.
+    private int seat(int bid){
+        for(int i=0;i<seats.length;i++){
+            if(seats[i]==bid){
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Bot " + bid + " has no seat in game " + gid);
     }
 
     //Returns gameData as a comma delimited string (which can be forwarded to
-    //bots or the switch for logging.
+    //bots or the switch for logging.  The format is the rules' game record.
     public String getGameData(){
-        String out="";
-        if(gd.size()>1){
-            for(Enumeration e = gd.elements(); e.hasMoreElements();){
-                out+=(String)e.nextElement().toString();
-                if(e.hasMoreElements()){
-                    out+=",";
-                }
-            }
-        }else{
-            out="No Moves Recorded";
+        if(rules.getMoveCount()<=1){
+            return "No Moves Recorded";
         }
-        return out;
+        return rules.getRecord();
+    }
+
+    // The rules' game record so far, whatever its length: the position a
+    // HouseEngine plays from.
+    public String getRecord(){
+        return rules.getRecord();
     }
 
     // ConnectFour performs all game data logging on the switch.  This string
@@ -158,124 +256,172 @@ public class GameManager {
     // functions requires close communication with a code-wars admin to create
     // a challenge database and writing stored procedures.
     public String logGame(){
-        return "insert_gamedata:"+victor+","+red+","+black+",'"+getGameData()+"',"+errorCode+","+errorBID+",'"+errorText+"',"+rated;
+        StringBuilder sb = new StringBuilder("insert_gamedata:").append(victor);
+        for(int i=0;i<seats.length;i++){
+            sb.append(',').append(seats[i]);
+        }
+        return sb.append(",'").append(getGameData()).append("',").append(errorCode).append(',').append(errorBID)
+                .append(",'").append(errorText).append("',").append(rated).toString();
     }
 
     // Validation Match is frequently refered to as a "protocol test."  A connecting
     // bot is asked to make several moves validating that they can send an receive
     // commands before playing a real match.
     public boolean isValidationMatch(){
-        if (bot2ID==0)
+        if (bots[1]==0)
             return true;
         return false;
     }
 
     public boolean isLiveMatch(){
-        if (bot2ID<0)
+        if (bots[1]<0)
             return true;
         return false;
     }
 
     // Make a random move.  Used for the validation/protocol test.
     public void makeValidMove(){
-        Random generator = new Random();
-        int move = generator.nextInt(6)+1;
-        while(!makeMove(move)){
-            move = generator.nextInt(6);
-        }
+        makeRandomMove();
         nextPlayer();
     }
+
+    // A random move for whoever's turn it is, which keeps the turn; the
+    // caller checks the result as after processMove().
+    public void makeRandomMove(){
+        rules.randomMove(seat(turn), generator);
+        keepPosition();
+    }
+
+    // Record the rules' key for the position just reached.  Rules which do
+    // not key their positions still have key 0 after the first move; such a
+    // game keeps no path.
+    private void keepPosition(){
+        if(!keyed){
+            return;
+        }
+        if(positionCount == 1 && rules.getPositionKey() == 0){
+            keyed = false;
+            return;
+        }
+        if(positionCount == positions.length){
+            positions = Arrays.copyOf(positions, positionCount*2);
+        }
+        positions[positionCount++] = rules.getPositionKey();
+    }
+
+    // Zobrist key of the current position.
+    public long getPositionKey(){
+        return rules.getPositionKey();
+    }
+
+    // Zobrist key of the position after the first moves moves (0 for the
+    // start), one per move made or round resolved.
+    public long getPositionKey(int moves){
+        return positions[moves];
+    }
+
+    // Positions passed through so far, the start included; only the start
+    // if the rules do not key positions.
+    public int getPositionCount(){
+        return positionCount;
+    }
     
     // In the future, input conditioning should be performed in a single place.  
     // For now, its spread throughout several functions.
     public boolean processMove(String in){
-        if(isNumeric(in)){
-            return makeMove(Integer.parseInt(in));
-        }else{
-            this.errorText = in + " is not a valid play";
+        return processMove(in, 0);
+    }
+
+    // Same as processMove(String) for the move starting at index from, so a
+    // reply can be checked without cutting the move out of its metadata.
+    public boolean processMove(String in, int from){
+        String error = rules.apply(seat(turn), in, from);
+        if(error != null){
+            this.errorText = error;
             this.errorBID = turn;
             return false;
         }
+        keepPosition();
+        return true;
     }
 
-    // If a move is valid, record it in the moves * height arrays.
-    public boolean makeMove(int move){
-        //is the move valid (1-7)
-        if(move < 1 | move > 7){
-            this.errorText = move + " is not a valid play";
-            this.errorBID = turn;
+    // Terminal check after a legal move.  Passes the turn on if nobody has
+    // won; in TableRules games the winner need not be the mover.
+    public boolean hasWon(){
+        if(table != null){
+            int winner = table.getWinner();
+            if(winner >= 0){
+                victor=seats[winner];
+                return true;
+            }
+        }else if(rules.isWin(seat(turn))){
+            victor=turn;
+            return true;
+        }
+        nextPlayer();
+        return false;
+    }
+
+    // A bot's choice in a simultaneous game.  False if the move is illegal or
+    // the bot has already moved this round (see getErrorText).
+    public boolean submitMove(int bid, String in, int from){
+        int seat = seat(bid);
+        if(submitted[seat]){
+            this.errorText = "Second move in one round";
+            this.errorBID = bid;
             return false;
         }
-        //is the move legal (column not full)
-        int col = move-1; //First column is 0;
-        if (height[col]+1 > ROWS){
-            this.errorText = "Column "+move+" is already full";
-            this.errorBID = turn;
+        String error = rules.apply(seat, in, from);
+        if(error != null){
+            this.errorText = error;
+            this.errorBID = bid;
             return false;
-        }else{
-            moves[COLS * height[col]+col] = turn;
-            height[col]++;
-            gd.add(move);
-            return true;
         }
+        submitted[seat] = true;
+        if(isValidationMatch()){
+            rules.randomMove(1, generator);
+            submitted[1] = true;
+        }
+        return true;
     }
 
-    private boolean isNumeric(String str) {
-        String validChars = "0123456789";
-        for (int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            if (validChars.indexOf(c) == -1) {
+    // The barrier: every bot has moved this round.
+    public boolean roundComplete(){
+        for(int i=0;i<submitted.length;i++){
+            if(!submitted[i]){
                 return false;
             }
         }
         return true;
     }
 
-    public boolean hasWon(){
-        //Only check for win conditions after 7 moves
-        boolean gameOver=false;
-        if(gd.size()>6){
-            //Checks the whole board for wins
-            int cursor=0;
-            int count=0;
-
-            for(int i=0;i<map.length;i++){
-                count=0;
-                for(int j=0;j<4;j++){
-                    cursor = map[i][j];
-                    if(moves[cursor]==turn){
-                        count++;
-                    }
-                }
-                if(count==4){
-                    gameOver=true;                    
-                }
-            }
-            if(gameOver){
-                victor=turn;
+    public void resolveRound(){
+        rounds.resolveRound();
+        Arrays.fill(submitted, false);
+        keepPosition();
+    }
+
+    // Terminal check after a resolved round; sets the victor (0 for a draw).
+    public boolean isOver(){
+        for(int i=0;i<seats.length;i++){
+            if(rules.isWin(i)){
+                victor=seats[i];
                 return true;
             }
         }
-        nextPlayer();
-        return false;
+        return isDraw();
     }
 
     public boolean isDraw(){
-        for(int i=0; i<COLS;i++){
-            if(height[i]<ROWS){
-                return false;
-            }
+        if(!rules.isDraw()){
+            return false;
         }
         victor=0;
         return true;
     }
 
     private void nextPlayer(){
-        if(turn==bot1ID){
-            turn=bot2ID;
-        }else{
-            turn=bot1ID;
-        }
+        turn=getOpp();
     }
 
     // Returns the metadata for a GAME_INITIALIZE command. If no parameter is
@@ -289,111 +435,28 @@ public class GameManager {
     // exciting.
     public String formGameInitializeCmd(int bid){
         String color="error";
-        if(bid==red){
+        if(bid==seats[0]){
             color="red";
         }else{
             color="black";
         }
-        if(this.bot1ID==bid){
-            return color+":"+String.valueOf(this.bot2ID);
-        }else if(this.bot2ID==bid){
-            return color+":"+String.valueOf(this.bot1ID);
+        if(bots[0]==bid){
+            return color+":"+String.valueOf(bots[1]);
+        }else if(bots[1]==bid){
+            return color+":"+String.valueOf(bots[0]);
         }
         return "Error";
     }
 
 
+    // "bid:red:black:victor:data", with every seat in order when there are
+    // more than two.
     public String formGameReportCmd(int bid){
-        String cmdTxt="";
-        if(bid==this.bot1ID){
-            cmdTxt = bot1ID+":"+red + ":" + black + ":" + victor + ":" + getGameData();
-        }else{
-            cmdTxt = bot2ID+":"+red + ":" + black + ":" + victor + ":" + getGameData();
+        StringBuilder sb = new StringBuilder().append(bid);
+        for(int i=0;i<seats.length;i++){
+            sb.append(':').append(seats[i]);
         }
-        return cmdTxt;
-    }
-
-
-    // Matrix of all possible connectFour plays.
-    private int[][] loadMap(){
-       int[][] out = new int[][] {
-            //Horizontal
-            { 0, 1, 2, 3},
-            { 1, 2, 3, 4},
-            { 2, 3, 4, 5},
-            { 3, 4, 5, 6},
-            { 7, 8, 9,10},
-            { 8, 9,10,11},
-            { 9,10,11,12},
-            {10,11,12,13},
-            {14,15,16,17},
-            {15,16,17,18},
-            {16,17,18,19},
-            {17,18,19,20},
-            {21,22,23,24},
-            {22,23,24,25},
-            {23,24,25,26},
-            {24,25,26,27},
-            {28,29,30,31},
-            {29,30,31,32},
-            {30,31,32,33},
-            {31,32,33,34},
-            {35,36,37,38},
-            {36,37,38,39},
-            {37,38,39,40},
-            {38,39,40,41},
-            //Vertical
-            { 0, 7,14,21},
-            { 1, 8,15,22},
-            { 2, 9,16,23},
-            { 3,10,17,24},
-            { 4,11,18,25},
-            { 5,12,19,26},
-            { 6,13,20,27},
-            { 7,14,21,28},
-            { 8,15,22,29},
-            { 9,16,23,30},
-            {10,17,24,31},
-            {11,18,25,32},
-            {12,19,26,33},
-            {13,20,27,34},
-            {14,21,28,35},
-            {15,22,29,36},
-            {16,23,30,37},
-            {17,24,31,38},
-            {18,25,32,39},
-            {19,26,33,40},
-            {20,27,34,41},
-            //Diagonal Right \
-            {21,15, 9, 3},
-            {22,16,10, 4},
-            {23,17,11, 5},
-            {24,18,12, 6},
-            {28,22,16,10},
-            {29,23,17,11},
-            {30,24,18,12},
-            {31,25,19,13},
-            {35,29,23,17},
-            {36,30,24,18},
-            {37,31,25,19},
-            {38,32,26,20},
-            //Diagonal Left  /
-            {24,16, 8, 0},
-            {25,17, 9, 1},
-            {26,18,10, 2},
-            {27,19,11, 3},
-            {31,23,15, 7},
-            {32,24,16, 8},
-            {33,25,17, 9},
-            {34,26,18,10},
-            {38,30,22,14},
-            {39,31,23,15},
-            {40,32,24,16},
-            {41,33,25,17}
-            };
-        return out;
+        return sb.append(':').append(victor).append(':').append(getGameData()).toString();
     }
 
-
-
 }
@@ -0,0 +1,60 @@
+/*
+ * GameRules is what a challenge plugs into the generic game server: the
+ * engine of one game.  The GameManager keeps everything every challenge has
+ * in common (the bots, whose turn it is, readiness, errors, the messages to
+ * the switch) and asks the rules about the position itself.
+ *
+ * Players are identified by seat: seat 0 moves first ("red"), seat 1 second
+ * and so on; the ChallengeType makes the rules for a number of seats.
+ * A GameRules instance belongs to exactly one GameManager and is only used
+ * by the CommandProcessor of its challenge, so it need not be thread safe.
+ *
+ * The move methods run once per ACTION_REPLY and should not allocate on the
+ * legal path; apply() returns null for a legal move and builds an error text
+ * only when the move is refused.
+ */
+
+package cw_generic;
+
+import java.util.Random;
+
+public interface GameRules {
+
+    // Initialise: an empty position for a new game.  random is the game
+    // server's shared random source, for rules which shuffle or deal.
+    void init(Random random);
+
+    // Apply the move in.substring(from) for seat.  Returns null if the move
+    // was legal and has been made, otherwise a text saying why not (the
+    // position is unchanged).
+    String apply(int seat, String in, int from);
+
+    // Terminal check, asked after a legal move by seat: has that move won?
+    boolean isWin(int seat);
+
+    // Terminal check: can nobody move any more?
+    boolean isDraw();
+
+    // Make some legal move for seat.  Used when the server plays the other
+    // side of a protocol test.
+    void randomMove(int seat, Random random);
+
+    int getMoveCount();
+
+    // The last move in the form sent with ACTION_REQUEST ("-1" before the
+    // first move).
+    String getLastMove();
+
+    // Zobrist key of the current position (see ZobristKeys), kept up to date
+    // as moves are applied.  0 for rules which do not key their positions.
+    long getPositionKey();
+
+    // The legal moves for the seat to move, for tools which explore the game
+    // tree (opening statistics), or null if the rules do not list them.  May
+    // allocate: it is never called during play.
+    String[] listMoves();
+
+    // Report format: the game record sent with GAME_REPORT and GAME_ABORT and
+    // stored by logGame, e.g. "4,3,4,5" in connect four.
+    String getRecord();
+}
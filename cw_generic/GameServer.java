@@ -22,6 +22,11 @@
  * Thrift calls are not guaranteed to be thread safe so extra care is
  * required to reduce the risk of concurrency issues.  Additional information
  * on Thrift can be found here: http://incubator.apache.org/thrift/.
+ * A GameServer hosts one challenge (see ChallengeType); the game itself is
+ * played by the challenge's GameRules.  main() starts one GameServer for
+ * every challenge in cw.challenges, each with its own queues,
+ * CommandProcessor and switch connections.  Only the first one serves the
+ * web interface.
  */
 package cw_generic;
 
@@ -41,30 +46,172 @@ import connectFourServer.gen.WebInterface;
 
 public class GameServer {
 
-    public final BlockingQueue<Command> commandQueue = new LinkedBlockingQueue();                                    // List of all commands to be processed by the commandProcessor()
-    public final BlockingQueue<CmdPack> sendQueue = new LinkedBlockingQueue();                                    // List of commands to be sent to the switch and/or bots
+    public final BlockingQueue<Command> commandQueue;       // List of all commands to be processed by the commandProcessor()
+    public final BlockingQueue<CmdPack> sendQueue;          // List of commands to be sent to the switch and/or bots
     public final List<OutputPack> outQueue = Collections.synchronizedList(new ArrayList<OutputPack>());    // List of all messages destined for the web (via Thrift)
+    public final OutboundJournal[] journals;                // Unacknowledged outbound messages, one per switch connection
     public final List<Integer> activeQueue = Collections.synchronizedList(new ArrayList<Integer>());       // List of all active authors challenging their bot.
     private static final Logger logger = Logger.getLogger(GameServer.class);
-    static private List<BotManager> bots = Collections.synchronizedList(new ArrayList<BotManager>());    // Actively maintained to include all online bots.
-    static private List<GameManager> games = Collections.synchronizedList(new ArrayList<GameManager>());   // All currently active games.
+    private final List<BotManager> bots = Collections.synchronizedList(new ArrayList<BotManager>());    // Actively maintained to include all online bots.
+    private final List<GameManager> games = Collections.synchronizedList(new ArrayList<GameManager>());   // All currently active games.
+    private final IntMap<BotManager> botIndex = new IntMap<BotManager>();     // bid -> first matching entry of bots
+    private final IntMap<GameManager> gameIndex = new IntMap<GameManager>();  // gid -> entry of games
+    private final Random random;            // Used to pair bots during CHALLENGE events
+    private final ChallengeType challenge;  // The game this server hosts
+    private final HouseBot house;           // The server's own player
+    private final OpeningStats openings;    // Results by position of the games finished here
+    private final Map<String, LatencyHistogram> reportedLatencies = new HashMap<String, LatencyHistogram>();  // Histograms as of the last CHALLENGE log line
+    private final String lane;              // Thread name suffix when the process hosts several challenges
+    private final String metrics;           // Prefix of this lane's metric names (see ServerMetrics)
     private long challengeInterval = 60000;  // Sets the frequency of CHALLENGE events in miliseconds
     private long outputPurgeInterval = 5000;  // Sets the expiration time for web-output commands in miliseconds
+    private final double webStartRejectAt = ServerConfig.getDouble("webStartGame.rejectAt", 0.75);  // commandQueue fill level above which WEB_START_GAME is refused
+
+    // Informational traffic which may be dropped when a queue overflows.
+    // Nothing a bot or user waits for is ever shed.
+    static final BoundedQueue.Shedder<Command> LOW_PRIORITY_COMMANDS = new BoundedQueue.Shedder<Command>() {
+        public boolean isSheddable(Command cmd) {
+            return "SERVER_MESSAGE".equals(cmd.getCommandType());
+        }
+    };
+    // New work which the REJECT policy refuses when the commandQueue is full.
+    static final BoundedQueue.Shedder<Command> NEW_REQUESTS = new BoundedQueue.Shedder<Command>() {
+        public boolean isSheddable(Command cmd) {
+            return "WEB_START_GAME".equals(cmd.getCommandType());
+        }
+    };
+    static final BoundedQueue.Shedder<CmdPack> LOW_PRIORITY_PACKS = new BoundedQueue.Shedder<CmdPack>() {
+        public boolean isSheddable(CmdPack pack) {
+            return "SERVER_MESSAGE".equals(pack.cmd.getCommandType());
+        }
+    };
 
     public static void main(String args[]) throws Exception {
         PropertyConfigurator.configure(args[0]);
-        GameServer gs = new GameServer(args);
+        List<ChallengeType> challenges = challengeTypes();
+        for (int i = 0; i < challenges.size(); i++) {
+            GameServer gs = new GameServer(args, challenges.get(i), i == 0, challenges.size() > 1);
+        }
     }
 
+    // Host the first challenge of cw.challenges, web interface included.
     public GameServer(String[] args) throws Exception {
+        this(args, challengeTypes().get(0), true, false);
+    }
+
+    public GameServer(String[] args, ChallengeType challenge, boolean web, boolean shared) throws Exception {
+        this.random = new Random();
+        this.challenge = challenge;
+        this.lane = shared ? "-" + challenge.getName() : "";
+        this.metrics = ServerMetrics.lanePrefix(lane);
+        this.commandQueue = newCommandQueue(metrics);
+        this.sendQueue = newSendQueue(metrics + "sendQueue");
+        this.journals = newJournals(metrics, ServerConfig.getInt("switch.connections", 1));
+        this.house = new HouseBot(challenge, commandQueue, lane, true);
+        this.openings = new OpeningStats(challenge);
         initialize(args);
         //Launch all supporting threads:
         //Contact, Authenticate & Listen to the switch.
-        new Thread(new SwitchListener(this.commandQueue, this.sendQueue, this.outQueue, logger), "SwitchListener").start();
-        new Thread(new ThriftServer(), "ThriftServer").start();
-        new Thread(new CommandProcessor(), "CommandProcessor").start();
-        new Thread(new OutputCleaner(this.commandQueue, logger, this.outputPurgeInterval), "OutputCleaner").start();
-        new Thread(new ChallengeTimer(this.commandQueue, logger, this.challengeInterval), "ChallengeTimer").start();
+        startSwitchConnections();
+        if (web) {
+            new Thread(new ThriftServer(), "ThriftServer").start();
+        }
+        new Thread(new CommandProcessor(), "CommandProcessor" + lane).start();
+        new Thread(new OutputCleaner(this.commandQueue, logger, this.outputPurgeInterval), "OutputCleaner" + lane).start();
+        new Thread(new ChallengeTimer(this.commandQueue, logger, this.challengeInterval), "ChallengeTimer" + lane).start();
+    }
+
+    // Build a game server without any supporting threads or sockets.  Commands
+    // are fed to process() directly and replies are left in sendQueue.  Used by
+    // the simulation harness together with a virtual Clock and a seeded Random.
+    // There is no HouseBot: protocol tests get the seeded random moves.
+    public GameServer(Random random) {
+        this(random, challengeTypes().get(0));
+    }
+
+    public GameServer(Random random, ChallengeType challenge) {
+        this.random = random;
+        this.challenge = challenge;
+        this.lane = "";
+        this.metrics = "";
+        this.commandQueue = newCommandQueue(metrics);
+        this.sendQueue = newSendQueue(metrics + "sendQueue");
+        this.journals = newJournals(metrics, ServerConfig.getInt("switch.connections", 1));
+        this.house = new HouseBot(challenge, commandQueue, lane, false);
+        this.openings = new OpeningStats(challenge);
+    }
+
+    // The challenges named in cw.challenges (class names, comma separated).
+    static List<ChallengeType> challengeTypes() {
+        List<ChallengeType> out = new ArrayList<ChallengeType>();
+        for (String name : ServerConfig.getString("challenges", "connectFourServer.ConnectFourChallenge").split(",")) {
+            try {
+                out.add((ChallengeType) Class.forName(name.trim()).getDeclaredConstructor().newInstance());
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Cannot load challenge " + name + ": " + e, e);
+            }
+        }
+        return out;
+    }
+
+    static OutboundJournal[] newJournals(String metrics, int shards) {
+        OutboundJournal[] journals = new OutboundJournal[Math.max(1, shards)];
+        for (int i = 0; i < journals.length; i++) {
+            journals[i] = new OutboundJournal(metrics, ServerConfig.getLong("journal.window", 5000), ServerConfig.getInt("journal.max", 100000));
+        }
+        return journals;
+    }
+
+    /* Open the switch connections.  A single connection consumes the sendQueue
+     * directly.  With -Dcw.switch.connections=K a ShardRouter splits the
+     * sendQueue into one queue per connection (see ShardRouter); every
+     * connection feeds the shared commandQueue.  The listeners run on
+     * virtual threads with -Dcw.threads=virtual (see ThreadMode).
+     */
+    private void startSwitchConnections() {
+        int shards = journals.length;
+        String registration = challenge.getName() + ":" + challenge.getKey();
+        if (shards == 1) {
+            ThreadMode.start(new SwitchListener(registration, lane, this.commandQueue, this.sendQueue, this.outQueue, this.journals[0], logger), "SwitchListener" + lane);
+            return;
+        }
+        List<BlockingQueue<CmdPack>> shardQueues = new ArrayList<BlockingQueue<CmdPack>>();
+        for (int i = 0; i < shards; i++) {
+            // Each shard's queue is configured like the sendQueue, so a
+            // connection which falls behind is bounded and keeps the fair
+            // order the same way; what does not fit is held by the router,
+            // which never waits for one shard.
+            BlockingQueue<CmdPack> shardQueue = newSendQueue(metrics + "sendQueue.shard" + i);
+            shardQueues.add(shardQueue);
+            ThreadMode.start(new SwitchListener(registration, lane, this.commandQueue, shardQueue, this.outQueue, this.journals[i], logger, i, shards), "SwitchListener" + lane + "-" + i);
+        }
+        ShardRouter router = new ShardRouter(this.sendQueue, shardQueues, this.outQueue, metrics);
+        router.setName("ShardRouter" + lane);
+        router.start();
+    }
+
+    /* With -Dcw.sendQueue.scheduling=fair the sendQueue shares the writer
+     * fairly between recipients and serves moves on a bot's clock first (see
+     * FairSendQueue); cw.sendQueue.weights sets the class weights.  Capacity
+     * and overload policy are configured exactly as for the FIFO queue.
+     * metric names the queue's counters; the shard queues share the
+     * sendQueue's configuration but count separately.
+     */
+    static BlockingQueue<CmdPack> newSendQueue(String metric) {
+        if (!isFairSending()) {
+            return newPipelineQueue("sendQueue", metric, LOW_PRIORITY_PACKS, null);
+        }
+        int capacity = ServerConfig.getInt("sendQueue.capacity", 0);
+        FairSendQueue queue = new FairSendQueue(capacity, FairSendQueue.parseWeights(ServerConfig.getString("sendQueue.weights", "16,4,1")));
+        if (capacity <= 0) {
+            return queue;
+        }
+        OverloadPolicy policy = OverloadPolicy.forName(ServerConfig.getString("sendQueue.policy", "block"));
+        return new BoundedQueue<CmdPack>(metric, queue, policy, LOW_PRIORITY_PACKS, null);
+    }
+
+    static boolean isFairSending() {
+        return ServerConfig.getString("sendQueue.scheduling", "fifo").equals("fair");
     }
 
     // Set several parameters defined at the command line.
@@ -77,6 +224,54 @@ public class GameServer {
         }
     }
 
+    /* Build one stage of the command pipeline.  By default this is the original
+     * unbounded LinkedBlockingQueue.  With -Dcw.pipeline=ring a preallocated
+     * RingBuffer is used instead; its size (cw.<name>.size) and consumer wait
+     * strategy (cw.waitStrategy: busyspin, yield, sleep or blocking) are
+     * configurable.  Both queues have exactly one consuming thread.
+     * Setting cw.<name>.capacity bounds the queue, and cw.<name>.policy
+     * (block, shed or reject) decides what happens when it is full.  A ring
+     * is always bounded by its size and defaults to blocking.  The queue's
+     * counters are named after metric.
+     */
+    static <E> BlockingQueue<E> newPipelineQueue(String name, String metric, BoundedQueue.Shedder<? super E> shedder, BoundedQueue.Shedder<? super E> rejecter) {
+        int capacity = ServerConfig.getInt(name + ".capacity", 0);
+        BlockingQueue<E> queue;
+        if (ServerConfig.getString("pipeline", "linked").equals("ring")) {
+            int size = capacity > 0 ? capacity : ServerConfig.getInt(name + ".size", 65536);
+            WaitStrategy strategy = WaitStrategy.forName(ServerConfig.getString("waitStrategy", "blocking"));
+            queue = new RingBuffer<E>(size, strategy);
+        } else if (capacity > 0) {
+            queue = new LinkedBlockingQueue<E>(capacity);
+        } else {
+            return new LinkedBlockingQueue<E>();
+        }
+        OverloadPolicy policy = OverloadPolicy.forName(ServerConfig.getString(name + ".policy", "block"));
+        return new BoundedQueue<E>(metric, queue, policy, shedder, rejecter);
+    }
+
+    /* With -Dcw.commandQueue.lanes=priority the commandQueue serves moves and
+     * ready traffic ahead of housekeeping (see PriorityCommandQueue).  The
+     * starvation guards are cw.commandQueue.maxBurst (urgent commands in a row)
+     * and cw.commandQueue.maxDefer (milliseconds).  Capacity and overload
+     * policy are configured exactly as for the FIFO queue.  Its counters are
+     * named after metrics, the lane's prefix.
+     */
+    static BlockingQueue<Command> newCommandQueue(String metrics) {
+        if (!ServerConfig.getString("commandQueue.lanes", "fifo").equals("priority")) {
+            return newPipelineQueue("commandQueue", metrics + "commandQueue", LOW_PRIORITY_COMMANDS, NEW_REQUESTS);
+        }
+        int capacity = ServerConfig.getInt("commandQueue.capacity", 0);
+        PriorityCommandQueue queue = new PriorityCommandQueue(metrics + "commandQueue", capacity,
+                ServerConfig.getInt("commandQueue.maxBurst", 64),
+                ServerConfig.getLong("commandQueue.maxDefer", 1000));
+        if (capacity <= 0) {
+            return queue;
+        }
+        OverloadPolicy policy = OverloadPolicy.forName(ServerConfig.getString("commandQueue.policy", "block"));
+        return new BoundedQueue<Command>(metrics + "commandQueue", queue, policy, LOW_PRIORITY_COMMANDS, NEW_REQUESTS);
+    }
+
     //Code Based on tutorial @ http://skorage.org/2009/03/08/simple-thrift-tutorial/
     public class ThriftServer extends Thread {
 
@@ -86,7 +281,12 @@ public class GameServer {
                 TServerSocket serverTransport = new TServerSocket(7911);
                 WebInterface.Processor processor = new WebInterface.Processor(new WebInterfaceImpl());
                 Factory protFactory = new TBinaryProtocol.Factory(true, true);
-                TServer server = new TThreadPoolServer(processor, serverTransport, protFactory);
+                TServer server;
+                if (ThreadMode.isVirtual()) {
+                    server = new VirtualThreadThriftServer(processor, serverTransport, protFactory);
+                } else {
+                    server = new TThreadPoolServer(processor, serverTransport, protFactory);
+                }
                 logger.info("Starting server on port 7911 ...");
                 server.serve();
             } catch (TTransportException e) {
@@ -97,7 +297,7 @@ public class GameServer {
 
     //Code Based on tutorial @ http://skorage.org/2009/03/08/simple-thrift-tutorial/
     //All commands originate from the web interface.
-    //All commands except "fetch_response" are one directional (no response required).
+    //All commands except "fetch_response" and "opening_stats" are one directional (no response required).
     //Fetch response looks through a queue of outgoing commands maintained by
     //the game server and returns with any which belong to the caller.
     //Sychronization is required because Thrift is not guaranteed to be thread
@@ -113,8 +313,20 @@ public class GameServer {
 
         @Override
         public void startGame(int bid) throws TException {
+            // New games are the cheapest work to refuse when overloaded.
+            int used = commandQueue.size();
+            if (used >= ((double) used + commandQueue.remainingCapacity()) * webStartRejectAt) {
+                ServerMetrics.increment(metrics + "webStartGame.rejected");
+                OutputPack.offer(outQueue, new OutputPack(-bid, "SERVER_MESSAGE<<Server is Busy!"), metrics);
+                logger.warn("startGame() rejected, commandQueue holds " + used + " commands");
+                return;
+            }
             Command cmd = new Command("WEB_START_GAME", Integer.toString(bid));
-            commandQueue.add(cmd);
+            if (!BoundedQueue.enqueue(commandQueue, cmd)) {
+                OutputPack.offer(outQueue, new OutputPack(-bid, "SERVER_MESSAGE<<Server is Busy!"), metrics);
+                logger.warn("startGame() rejected, commandQueue is full");
+                return;
+            }
             logger.info("startGame() fired!");
         }
 
@@ -132,6 +344,14 @@ public class GameServer {
             logger.info("abortGame() fired!");
         }
 
+        // Answered here rather than through the commandQueue: the statistics
+        // are a concurrent structure and reading them never waits for games.
+        @Override
+        public String openingStats(String moves) throws TException {
+            ServerMetrics.increment(metrics + "webOpeningStats");
+            return openings.describe(moves == null ? "" : moves);
+        }
+
         @Override
         public String fetchResponse(int bid) throws TException {
             activeQueue.add(-bid); //Human is Active!
@@ -161,7 +381,7 @@ public class GameServer {
     private void cleanOutput() {
         synchronized (outQueue) {
             List<BotManager> toRemove = Collections.synchronizedList(new ArrayList<BotManager>());
-            long currentTime = System.currentTimeMillis();
+            long currentTime = Clock.now();
             for (OutputPack p : outQueue) {
                 if (p.getEXP() <= currentTime) {
                     BotManager human;
@@ -194,22 +414,22 @@ public class GameServer {
             if ((bot = botByBID(bid)) != null) {
                 if (!bot.isBusy()) {
                     human = new BotManager(hid, 1, "human");
-                    bots.add(human);
-                    GameManager g = new GameManager(bot.getBID(), human.getBID());
-                    games.add(g);
+                    addBot(human);
+                    GameManager g = new GameManager(bot.getBID(), human.getBID(), challenge.newRules(2));
+                    addGame(g);
                     bot.setBusy(true);
                     bot.setGID(g.getGID());
                     human.setBusy(true);
                     human.setGID(g.getGID());
                     g.setReady(human.getBID());
-                    sendQueue.add(new CmdPack(new Command("GAME_INITIALIZE", g.formGameInitializeCmd(bot.getBID())), bot.getBID(), 5000));
-                    sendQueue.add(new CmdPack(new Command("GAME_INITIALIZE", g.formGameInitializeCmd(human.getBID())), human.getBID(), 5000));
+                    send("GAME_INITIALIZE", g.formGameInitializeCmd(bot.getBID()), bot.getBID(), 5000);
+                    send("GAME_INITIALIZE", g.formGameInitializeCmd(human.getBID()), human.getBID(), 5000);
                     logger.info("Human : " + hid + " logged in.");
                 } else {
-                    sendQueue.add(new CmdPack(new Command("SERVER_MESSAGE", "Bot " + bot.getBID() + " is Busy!"), hid));
+                    send("SERVER_MESSAGE", "Bot " + bot.getBID() + " is Busy!", hid, 0);
                 }
             } else {
-                sendQueue.add(new CmdPack(new Command("SERVER_MESSAGE", "Bot " + bid + " is not Online!"), hid));
+                send("SERVER_MESSAGE", "Bot " + bid + " is not Online!", hid, 0);
             }
         }
     }
@@ -223,13 +443,13 @@ public class GameServer {
             int mode = Integer.parseInt(getParamValue("mode", metaData[1]));
             String language = "null"; //Currently useless.
             BotManager b = new BotManager(bid, mode, language);
-            bots.add(b);
-            sendQueue.add(new CmdPack(new Command("SERVER_MESSAGE", "GameServer Confirmed Connection"), bid, 0));
-            GameManager g = new GameManager(b.getBID(), 0);
-            games.add(g);
+            addBot(b);
+            send("SERVER_MESSAGE", "GameServer Confirmed Connection", bid, 0);
+            GameManager g = new GameManager(b.getBID(), 0, challenge.newRules(2));
+            addGame(g);
             b.setGID(g.getGID());
             b.setBusy(true);
-            sendQueue.add(new CmdPack(new Command("GAME_INITIALIZE", g.formGameInitializeCmd()), b.getBID(), 5000));
+            send("GAME_INITIALIZE", g.formGameInitializeCmd(), b.getBID(), 5000);
             logger.info("Bot : " + bid + " logged in.");
         }
     }
@@ -248,7 +468,7 @@ public class GameServer {
                     g.setReady(bid);
                     if (g.botsReady()) {
                         //Send Action Requests
-                        sendQueue.add(new CmdPack(new Command("ACTION_REQUEST", g.getLastMove()), g.getTurn(), 5000));
+                        requestMoves(g);
                     }
                 } else {
                     //CMD: Bot is not involved in a game - message discarded
@@ -278,34 +498,35 @@ public class GameServer {
      * game reports to both bots.
      */
     private void actionReply(Command cmd) {
-        String[] metaData = cmd.getMetaData().split(":");
+        // Metadata is "bid:x:move".  Find the move by hand rather than with
+        // split(), which allocates on every reply.
+        String metaData = cmd.getMetaData();
+        int c1 = metaData.indexOf(':');
+        int c2 = c1 < 0 ? -1 : metaData.indexOf(':', c1 + 1);
+        boolean wellFormed = c2 > 0 && c2 < metaData.length() - 1 && metaData.indexOf(':', c2 + 1) < 0;
         BotManager b;
         if ((b = botByBID(cmd.getBID())) != null) {
-            if (metaData.length == 3) {
+            if (wellFormed) {
                 int gid = b.getGID();   // Find bot's current game.
                 GameManager g;
                 if ((g = gameByGID(gid)) != null) {
-                    if (g.processMove(metaData[2])) {
+                    if (g.isSimultaneous()) {
+                        roundReply(b, g, metaData, c2 + 1);
+                    } else if (!g.isWaitingFor(b.getBID())) {
+                        // Never played as the bot whose turn it is.
+                        disconnectionByGameServer(b, "ACTION_REPLY sent out of turn.");
+                    } else if (g.processMove(metaData, c2 + 1)) {
                         if (!(g.isValidationMatch() & g.getMoveCount() > 5)) {
                             if (!(g.isDraw() | g.hasWon())) {
-                                if (g.isValidationMatch()) {
+                                if (g.isValidationMatch() && !house.isEnabled()) {
                                     g.makeValidMove();
                                 }
-                                sendQueue.add(new CmdPack(new Command("ACTION_REQUEST", g.getLastMove()), g.getTurn(), 5000));
+                                requestMoves(g);
                             } else {
-                                String test = g.logGame(); // apparently I was having difficulty with this in the past.(?)
-                                sendQueue.add(new CmdPack(new Command("EXECUTE_PROCEDURE", test)));
-                                sendQueue.add(new CmdPack(new Command("GAME_REPORT", g.formGameReportCmd(g.getBID1())), g.getBID1()));
-                                sendQueue.add(new CmdPack(new Command("GAME_REPORT", g.formGameReportCmd(g.getBID2())), g.getBID2()));
-                                setIdle(g.getBID1());
-                                setIdle(g.getBID2());
-                                games.remove(g);
+                                finishGame(g);
                             }
                         } else {
-                            //Validation Match/Protocol test has concluded
-                            sendQueue.add(new CmdPack(new Command("SERVER_MESSAGE", "Protocol Test Passed!"), g.getBID1()));
-                            setIdle(g.getBID1());
-                            games.remove(g);
+                            protocolTestPassed(g);
                         }
                     } else {
                         //Bot has made an invalid move
@@ -325,6 +546,106 @@ public class GameServer {
         }
     }
 
+    /* A move chosen by the HouseBot, "gid:moveCount:move".  It is dropped if
+     * the game has ended or moved on since it was asked for.  Should the
+     * engine have failed to find a legal move, a random one is made instead.
+     */
+    private void houseMove(Command cmd) {
+        String metaData = cmd.getMetaData();
+        int c1 = metaData.indexOf(':');
+        int c2 = c1 < 0 ? -1 : metaData.indexOf(':', c1 + 1);
+        if (c2 < 0) {
+            logger.error("Malformed HOUSE_MOVE " + metaData);
+            return;
+        }
+        GameManager g = gameByGID(Integer.parseInt(metaData.substring(0, c1)));
+        if (g == null || g.getMoveCount() != Integer.parseInt(metaData.substring(c1 + 1, c2)) || !house.plays(g, g.getTurn())) {
+            logger.info("Discarded stale HOUSE_MOVE " + metaData);
+            return;
+        }
+        if (c2 == metaData.length() - 1 || !g.processMove(metaData, c2 + 1)) {
+            logger.error("House engine found no legal move in game " + g.getGID() + ", moving at random");
+            g.makeRandomMove();
+        }
+        if (!(g.isDraw() | g.hasWon())) {
+            requestMoves(g);
+        } else {
+            finishGame(g);
+        }
+    }
+
+    /* A move in a simultaneous game.  Nothing happens until both bots have
+     * moved; then the round is resolved and both get their next request at
+     * once (or the game ends).
+     */
+    private void roundReply(BotManager b, GameManager g, String metaData, int from) {
+        if (!g.submitMove(b.getBID(), metaData, from)) {
+            disconnectionByGameServer(b, "Bot has made an invalid move.");
+            return;
+        }
+        if (!g.roundComplete()) {
+            return;
+        }
+        g.resolveRound();
+        if (g.isValidationMatch() & g.getMoveCount() > 5) {
+            protocolTestPassed(g);
+        } else if (g.isOver()) {
+            finishGame(g);
+        } else {
+            requestMoves(g);
+        }
+    }
+
+    // Ask for the next move: from the bot whose turn it is (the HouseBot if
+    // it is the house's turn), or from every bot at once in a simultaneous
+    // game.  Each bot gets its own view of the game.  A HouseBot with too
+    // many searches waiting gets a random move made for it here, as protocol
+    // tests did without one.
+    private void requestMoves(GameManager g) {
+        if (house.plays(g, g.getTurn())) {
+            if (house.request(g)) {
+                return;
+            }
+            g.makeRandomMove();
+            if (g.isDraw() | g.hasWon()) {
+                finishGame(g);
+                return;
+            }
+        }
+        if (!g.isSimultaneous()) {
+            send("ACTION_REQUEST", g.getLastMove(g.getTurn()), g.getTurn(), 5000);
+            return;
+        }
+        for (int i = 0; i < g.getPlayerCount(); i++) {
+            if (g.getBID(i) != 0) {
+                send("ACTION_REQUEST", g.getLastMove(g.getBID(i)), g.getBID(i), 5000);
+            }
+        }
+    }
+
+    // The game has a result: log it and report it to every bot.
+    private void finishGame(GameManager g) {
+        String test = g.logGame(); // apparently I was having difficulty with this in the past.(?)
+        send("EXECUTE_PROCEDURE", test, 0, 0);
+        if (!g.isValidationMatch()) {
+            openings.record(g);
+        }
+        for (int i = 0; i < g.getPlayerCount(); i++) {
+            send("GAME_REPORT", g.formGameReportCmd(g.getBID(i)), g.getBID(i), 0);
+        }
+        for (int i = 0; i < g.getPlayerCount(); i++) {
+            setIdle(g.getBID(i));
+        }
+        removeGame(g);
+    }
+
+    //Validation Match/Protocol test has concluded
+    private void protocolTestPassed(GameManager g) {
+        send("SERVER_MESSAGE", "Protocol Test Passed!", g.getBID1(), 0);
+        setIdle(g.getBID1());
+        removeGame(g);
+    }
+
     /*
      * Periodically schedule games between any connected bots.
      */
@@ -356,22 +677,100 @@ public class GameServer {
                 logger.info(b.getBID() + " " + status);
             }
         }
-        if (list.size() >= 2) {
-            Collections.shuffle(list);
-            while (list.size() >= 2) {
-                GameManager g = new GameManager(list.get(0).getBID(), list.get(1).getBID());
-                list.get(0).setGID(g.getGID());
-                list.get(0).setBusy(true);
-                list.get(1).setGID(g.getGID());
-                list.get(1).setBusy(true);
-                games.add(g);
-                sendQueue.add(new CmdPack(new Command("GAME_INITIALIZE", g.formGameInitializeCmd()), list.get(0).getBID(), 5000));
-                sendQueue.add(new CmdPack(new Command("GAME_INITIALIZE", g.formGameInitializeCmd()), list.get(1).getBID(), 5000));
-                list.remove(0);
-                list.remove(0);
+        logger.info("Queues: commandQueue=" + commandQueue.size() + " sendQueue=" + sendQueue.size() + " outQueue=" + outQueue.size());
+        String counters = ServerMetrics.summary(metrics);
+        if (counters.length() > 0) {
+            logger.info("Metrics: " + counters);
+        }
+        String latencies = ServerMetrics.histogramSummary(metrics, reportedLatencies);
+        if (latencies.length() > 0) {
+            logger.info("Latency: " + latencies.replace("\n", "\nLatency: "));
+        }
+        int players = challenge.getPlayers();
+        if (list.size() >= players) {
+            Collections.shuffle(list, random);
+            while (list.size() >= players) {
+                int[] bids = new int[players];
+                for (int i = 0; i < players; i++) {
+                    bids[i] = list.get(i).getBID();
+                }
+                GameManager g = new GameManager(bids, challenge.newRules(players));
+                for (int i = 0; i < players; i++) {
+                    list.get(i).setGID(g.getGID());
+                    list.get(i).setBusy(true);
+                }
+                addGame(g);
+                for (int i = 0; i < players; i++) {
+                    send("GAME_INITIALIZE", g.formGameInitializeCmd(), list.get(i).getBID(), 5000);
+                }
+                list.subList(0, players).clear();
                 logger.info("Game #" + g.getGID() + " has begun!");
             }
         }
+        if (list.size() == 1 && house.fillsIn()) {
+            BotManager b = list.get(0);
+            GameManager g = new GameManager(b.getBID(), house.getBID(), challenge.newRules(2));
+            g.setReady(house.getBID());
+            b.setGID(g.getGID());
+            b.setBusy(true);
+            addGame(g);
+            send("GAME_INITIALIZE", g.formGameInitializeCmd(), b.getBID(), 5000);
+            logger.info("Game #" + g.getGID() + " against the house bot has begun!");
+        }
+    }
+
+    /* The switch connection was re-established.  Resend anything the old
+     * connection may have lost, but only if it still matches the game state:
+     * requests are re-issued only if the bot is still waiting for them, and
+     * reports/aborts only go to bots which are still online.
+     */
+    private void replayJournal(Command cmd) {
+        int shard = 0;
+        try {
+            shard = Integer.parseInt(cmd.getMetaData());
+        } catch (NumberFormatException e) {
+            // Sent by a single connection
+        }
+        if (shard < 0 || shard >= journals.length) {
+            logger.warn("SWITCH_RECONNECTED for unknown shard " + cmd.getMetaData());
+            return;
+        }
+        int replayed = 0;
+        int discarded = 0;
+        for (OutboundJournal.Entry e : journals[shard].takeUnconfirmed()) {
+            CmdPack pack = e.pack;
+            String type = pack.cmd.getCommandType();
+            boolean resend = false;
+            if (pack.getBID() == 0) {
+                resend = true;
+            } else {
+                BotManager b = botByBID(pack.getBID());
+                GameManager g = b == null ? null : gameByGID(b.getGID());
+                if (b == null) {
+                    resend = false;
+                } else if (type.equals("GAME_INITIALIZE")) {
+                    resend = b.isBusy() && g != null && !g.botsReady();
+                } else if (type.equals("ACTION_REQUEST")) {
+                    if (b.isBusy() && g != null && g.botsReady() && g.isWaitingFor(b.getBID())) {
+                        e.pack.release();
+                        pack = CmdPack.obtain(Command.obtain("ACTION_REQUEST", g.getLastMove(b.getBID())), b.getBID(), 5000);
+                        resend = true;
+                    }
+                } else {
+                    resend = true;
+                }
+            }
+            if (resend) {
+                sendQueue.add(pack);
+                replayed++;
+            } else {
+                pack.release();
+                discarded++;
+            }
+        }
+        ServerMetrics.add(metrics + "journal.replayed", replayed);
+        ServerMetrics.add(metrics + "journal.discarded", discarded);
+        logger.warn("Switch connection " + shard + " reconnected: replayed " + replayed + " messages, discarded " + discarded + " stale ones.");
     }
 
     private void switchMessage(Command cmd) {
@@ -392,7 +791,7 @@ public class GameServer {
                 } else {
                     modeStr = "debug";
                 }
-                sendQueue.add(new CmdPack(new Command("SERVER_MESSAGE", "Bot has entered " + modeStr + " mode!"), bid, 0));
+                send("SERVER_MESSAGE", "Bot has entered " + modeStr + " mode!", bid, 0);
             }
         }
     }
@@ -402,7 +801,7 @@ public class GameServer {
         int gid = b.getGID();
         GameManager g;
         if ((g = gameByGID(gid)) != null) {
-            sendQueue.add(new CmdPack(new Command("DISCONNECT_BOT_REMOTE", reason), b.getBID()));
+            send("DISCONNECT_BOT_REMOTE", reason, b.getBID(), 0);
         }
         disconnect(b);
     }
@@ -421,19 +820,28 @@ public class GameServer {
         if (b.isBusy()) {
             GameManager g;
             if ((g = gameByGID(b.getGID())) != null) {
-                if (g.getBID1() > 0 || b.getBID() != g.getBID1()) {
-                    sendQueue.add(new CmdPack(new Command("GAME_ABORT", g.getGameData()), g.getBID1()));
+                for (int i = 0; i < g.getPlayerCount(); i++) {
+                    int bid = g.getBID(i);
+                    if (bid > 0 || b.getBID() != bid) {
+                        send("GAME_ABORT", g.getGameData(), bid, 0);
+                    }
                 }
-                if (g.getBID2() > 0 || b.getBID() != g.getBID2()) {
-                    sendQueue.add(new CmdPack(new Command("GAME_ABORT", g.getGameData()), g.getBID2()));
+                if (g.getPlayerCount() == 2) {
+                    send("SERVER_MESSAGE", "Opponent disconnected or made an invalid move!", g.getOpp(), 0);
+                    setIdle(g.getOpp());
+                } else {
+                    for (int i = 0; i < g.getPlayerCount(); i++) {
+                        if (g.getBID(i) != b.getBID()) {
+                            send("SERVER_MESSAGE", "Opponent disconnected or made an invalid move!", g.getBID(i), 0);
+                            setIdle(g.getBID(i));
+                        }
+                    }
                 }
-                sendQueue.add(new CmdPack(new Command("SERVER_MESSAGE", "Opponent disconnected or made an invalid move!"), g.getOpp()));
-                setIdle(g.getOpp());
-                games.remove(g);
+                removeGame(g);
             }
         }
         cleanOutQueue(b);
-        bots.remove(b);
+        removeBot(b);
         logger.info("Bot " + b.getBID() + " has been removed from list.");
     }
 
@@ -466,13 +874,69 @@ public class GameServer {
         return null;
     }
 
-    private BotManager botByBID(int bid) {
-        for (BotManager b : bots) {
-            if (b.getBID() == bid) {
-                return b;
+    // Queue a command for bid (0 = the switch) in pooled envelopes; whoever
+    // consumes the pack last releases it.
+    private void send(String type, String metaData, int bid, long actionTime) {
+        if (bid != 0 && bid == house.getBID()) {
+            return;     // The house bot is not on the switch
+        }
+        CmdPack pack = CmdPack.obtain(Command.obtain(type, metaData), bid, actionTime);
+        if (!BoundedQueue.enqueue(sendQueue, pack)) {
+            pack.release();     // Shed under overload
+        }
+    }
+
+    /* bots and games are indexed by id so the per-move lookups neither scan
+     * the lists nor box their keys.  A duplicate login leaves two entries with
+     * one bid; like the old list scan, the index returns the first of them.
+     * Only the CommandProcessor thread uses these.
+     */
+    private void addBot(BotManager b) {
+        bots.add(b);
+        if (botIndex.get(b.getBID()) == null) {
+            botIndex.put(b.getBID(), b);
+        }
+    }
+
+    private void removeBot(BotManager b) {
+        bots.remove(b);
+        if (botIndex.get(b.getBID()) == b) {
+            botIndex.remove(b.getBID());
+            synchronized (bots) {
+                for (int i = 0; i < bots.size(); i++) {
+                    if (bots.get(i).getBID() == b.getBID()) {
+                        botIndex.put(b.getBID(), bots.get(i));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addGame(GameManager g) {
+        games.add(g);
+        if (gameIndex.get(g.getGID()) == null) {
+            gameIndex.put(g.getGID(), g);
+        }
+    }
+
+    private void removeGame(GameManager g) {
+        games.remove(g);
+        if (gameIndex.get(g.getGID()) == g) {
+            gameIndex.remove(g.getGID());
+            synchronized (games) {
+                for (int i = 0; i < games.size(); i++) {
+                    if (games.get(i).getGID() == g.getGID()) {
+                        gameIndex.put(g.getGID(), games.get(i));
+                        break;
+                    }
+                }
             }
         }
-        return null;
+    }
+
+    private BotManager botByBID(int bid) {
+        return botIndex.get(bid);
     }
 
     private BotManager botByGID(int gid) {
@@ -485,12 +949,7 @@ public class GameServer {
     }
 
     private GameManager gameByGID(int gid) {
-        for (GameManager g : games) {
-            if (g.getGID() == gid) {
-                return g;
-            }
-        }
-        return null;
+        return gameIndex.get(gid);
     }
 
     private boolean isNumeric(String str) {
@@ -504,6 +963,36 @@ public class GameServer {
         return true;
     }
 
+    // Route a single command to the appropriate routine.  Must only be called
+    // from one thread at a time (normally the CommandProcessor).
+    public void process(Command cmd) {
+        if (cmd.getCommandType().equals("LOGIN_INFORM")) {
+            login(cmd);
+        } else if (cmd.getCommandType().equals("GAME_INITIALIZE")) {
+            setReadyStatus(cmd);
+        } else if (cmd.getCommandType().equals("ACTION_REPLY")) {
+            actionReply(cmd);
+        } else if (cmd.getCommandType().equals("HOUSE_MOVE")) {
+            houseMove(cmd);
+        } else if (cmd.getCommandType().equals("DISCONNECT_BOT_REMOTE")) {
+            disconnectionBySwitch(cmd);
+        } else if (cmd.getCommandType().equals("CHALLENGE")) {
+            challengeEvent();
+        } else if (cmd.getCommandType().equals("SERVER_MESSAGE")) {
+            switchMessage(cmd);
+        } else if (cmd.getCommandType().equals("WEB_START_GAME")) {
+            webStartGame(cmd);
+        } else if (cmd.getCommandType().equals("SET_MODE")) {
+            setMode(cmd);
+        } else if (cmd.getCommandType().equals("CLEAN_OUTPUT")) {
+            cleanOutput();
+        } else if (cmd.getCommandType().equals("SWITCH_RECONNECTED")) {
+            replayJournal(cmd);
+        } else {
+            logger.warn("Unrecognized Command Forwarded From Server: " + cmd.getCommandType());
+        }
+    }
+
     public class CommandProcessor extends Thread {
 
         private Command cmd;
@@ -514,28 +1003,8 @@ public class GameServer {
                 try {
                     cmd = commandQueue.take();
                     //System.out.println("FROM SW => " +cmd.getCommandType()+"<<"+cmd.getMetaData());
-                    if (cmd.getCommandType().equals("LOGIN_INFORM")) {
-                        login(cmd);
-                    } else if (cmd.getCommandType().equals("GAME_INITIALIZE")) {
-                        setReadyStatus(cmd);
-                    } else if (cmd.getCommandType().equals("ACTION_REPLY")) {
-                        actionReply(cmd);
-                    } else if (cmd.getCommandType().equals("DISCONNECT_BOT_REMOTE")) {
-                        disconnectionBySwitch(cmd);
-                    } else if (cmd.getCommandType().equals("CHALLENGE")) {
-                        challengeEvent();
-                    } else if (cmd.getCommandType().equals("SERVER_MESSAGE")) {
-                        switchMessage(cmd);
-                    } else if (cmd.getCommandType().equals("WEB_START_GAME")) {
-                        webStartGame(cmd);
-                    } else if (cmd.getCommandType().equals("SET_MODE")) {
-                        setMode(cmd);
-                    } else if (cmd.getCommandType().equals("CLEAN_OUTPUT")) {
-                        cleanOutput();
-                    } else {
-                        logger.warn("Unrecognized Command Forwarded From Server: " + cmd.getCommandType());
-                    }
-
+                    process(cmd);
+                    cmd.release();
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } catch (NullPointerException e) {
@@ -544,4 +1013,4 @@ public class GameServer {
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,126 @@
+/*
+ * The HouseBot is the game server's own player.  It takes the server's side
+ * of protocol tests, and with -Dcw.house.bid set it also plays the bot left
+ * over when a CHALLENGE cannot pair everybody, as bot cw.house.bid (the
+ * switch must know that bid to log the games).
+ *
+ * Searching takes time, so it never runs on the CommandProcessor.  request()
+ * copies the game record and hands the search to a pool of
+ * cw.house.threads threads (default a quarter of the cores), each with its
+ * own HouseEngine.  At most cw.house.queue searches per thread (default 8)
+ * wait for the pool; when that many do, as after a storm of logins, request()
+ * refuses and the CommandProcessor makes a random move instead, as it did
+ * for every protocol test before there was a house bot (counted as
+ * house.busy).  The chosen move comes back as a HOUSE_MOVE command,
+ * "gid:moveCount:move", through the commandQueue like any bot's reply; the
+ * move count lets the CommandProcessor discard a move for a game which has
+ * ended or moved on in the meantime.
+ *
+ * Strength is cw.house.depth, the deepest search (default 20; 0 turns the
+ * house bot off and protocol tests get random moves on the CommandProcessor
+ * as before), and cw.house.budgetMs, the time allowed for one move
+ * (default 20).  The search is told to stop cw.house.marginMs (default 3)
+ * before the budget runs out, which leaves room for the thread to be
+ * descheduled, by the JIT or a busy core, and still answer in time.  Only
+ * challenges with a HouseEngine have a house bot.
+ */
+
+package cw_generic;
+
+import java.util.concurrent.*;
+import org.apache.log4j.Logger;
+
+public class HouseBot {
+    private static final Logger logger = Logger.getLogger(HouseBot.class);
+
+    private final ChallengeType challenge;
+    private final BlockingQueue<Command> commandQueue;
+    private final String lane;
+    private final int depth = ServerConfig.getInt("house.depth", 20);
+    private final long budget = ServerConfig.getLong("house.budgetMs", 20) * 1000000L;
+    private final long margin = ServerConfig.getLong("house.marginMs", 3) * 1000000L;
+    private final int threads = Math.max(1, ServerConfig.getInt("house.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 4)));
+    private final int queue = Math.max(1, ServerConfig.getInt("house.queue", 8));  // Searches waiting per thread
+    private final String busyMetric;
+    private final int bid;
+    private final boolean enabled;
+    private ExecutorService pool;       // Started by the first request
+    private final ThreadLocal<HouseEngine> engines = new ThreadLocal<HouseEngine>() {
+        @Override
+        protected HouseEngine initialValue() {
+            return challenge.newHouseEngine(depth);
+        }
+    };
+
+    // With threaded false the house bot stays off, for servers which must
+    // not start threads of their own (the simulations).
+    public HouseBot(ChallengeType challenge, BlockingQueue<Command> commandQueue, String lane, boolean threaded) {
+        this.challenge = challenge;
+        this.commandQueue = commandQueue;
+        this.lane = lane;
+        this.busyMetric = ServerMetrics.lanePrefix(lane) + "house.busy";
+        this.enabled = threaded && depth > 0 && challenge.getPlayers() == 2 && challenge.hasHouseEngine();
+        this.bid = enabled ? ServerConfig.getInt("house.bid", 0) : 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // True if the house bot fills in for a bot left without an opponent.
+    public boolean fillsIn() {
+        return bid != 0;
+    }
+
+    public int getBID() {
+        return bid;
+    }
+
+    // True if the house bot makes g's moves for bid: the server's side of a
+    // protocol test (bid 0) or the house bot's own seat.
+    public boolean plays(GameManager g, int bid) {
+        return enabled && (bid == 0 ? g.isValidationMatch() : bid == this.bid);
+    }
+
+    // Search g's next move on the pool.  Called by the CommandProcessor.
+    // False if too many searches are waiting already; the caller moves for
+    // the house bot itself.
+    public boolean request(GameManager g) {
+        final int gid = g.getGID();
+        final int count = g.getMoveCount();
+        final String record = g.getRecord();
+        try {
+            pool().execute(new Runnable() {
+                public void run() {
+                    String move = null;
+                    try {
+                        move = engines.get().chooseMove(record, System.nanoTime() + budget - margin);
+                    } catch (RuntimeException e) {
+                        logger.error("House engine failed in game " + gid, e);
+                    }
+                    commandQueue.add(new Command("HOUSE_MOVE", gid + ":" + count + ":" + (move == null ? "" : move)));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ServerMetrics.increment(busyMetric);
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * queue), new ThreadFactory() {
+                private int n;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "HouseBot" + lane + "-" + (n++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * A HouseEngine is a challenge's own player, used by the HouseBot for the
+ * server's side of protocol tests and for fill-in games.  It is given the
+ * game record made by the challenge's GameRules (the position to play from)
+ * and answers with a move in the form a bot would send it.  Each HouseBot
+ * thread has its own engine, so an engine need not be thread safe and may
+ * keep tables from one search to the next.
+ */
+
+package cw_generic;
+
+public interface HouseEngine {
+
+    // The move for the side to play after record, searched until deadline
+    // (a System.nanoTime() value).  Null if the engine has no move to offer.
+    String chooseMove(String record, long deadline);
+}
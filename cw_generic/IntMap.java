@@ -0,0 +1,115 @@
+/*
+ * IntMap is a small open addressing hash map from int keys to objects.  It is
+ * used for the bid and gid indexes of the GameServer, where a HashMap would
+ * box every key on lookup.  get() never allocates and put() allocates only
+ * when the table grows.  Not thread safe.
+ */
+
+package cw_generic;
+
+public class IntMap<V> {
+    private int[] keys = new int[64];
+    private Object[] values = new Object[64];
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    public void put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    public void remove(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == null) {
+            return;
+        }
+        values[i] = null;
+        size--;
+        // Re-insert the rest of the cluster so lookups do not stop early.
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int k = keys[j];
+            Object v = values[j];
+            values[j] = null;
+            size--;
+            reinsert(k, v);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Add every value to out, in no particular order.
+    @SuppressWarnings("unchecked")
+    public void addValuesTo(java.util.Collection<? super V> out) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                out.add((V) values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void reinsert(int key, Object value) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (values[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                reinsert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The LatencyHistogram class records latency samples (in nanoseconds) into a
+ * fixed set of log-linear buckets.  Each power of two is split into 16 linear
+ * sub-buckets, which keeps the relative error of any reported percentile
+ * below ~6% while using a constant amount of memory no matter how many
+ * samples are recorded.  Recording is lock free and allocation free so it can
+ * be called from any game server thread.  A histogram can be cleared after
+ * each report to give a rolling view of recent traffic, or, when several
+ * readers report on it, each can keep a snapshot() and report only what was
+ * recorded since (see since()).
+ */
+
+package cw_generic;
+
+import java.util.concurrent.atomic.*;
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;                  // 16 sub-buckets per power of two
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAGNITUDES = 64 - SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        total.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        return sum.get() / n;
+    }
+
+    // Returns the upper bound of the bucket holding the requested percentile
+    // (0-100).  Returns 0 when no samples have been recorded.
+    public long getPercentile(double percentile) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    // A copy of the samples recorded so far.  Samples recorded while copying
+    // may be partly included.
+    public LatencyHistogram snapshot() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < counts.length(); i++) {
+            copy.counts.set(i, counts.get(i));
+        }
+        copy.total.set(total.get());
+        copy.sum.set(sum.get());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    // The samples recorded since earlier, an older snapshot() of this
+    // histogram.  The maximum is only known to within its bucket.
+    public LatencyHistogram since(LatencyHistogram earlier) {
+        LatencyHistogram interval = new LatencyHistogram();
+        long n = 0;
+        int highest = -1;
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i) - earlier.counts.get(i);
+            if (c > 0) {
+                interval.counts.set(i, c);
+                n += c;
+                highest = i;
+            }
+        }
+        interval.total.set(n);
+        interval.sum.set(sum.get() - earlier.sum.get());
+        interval.max.set(highest < 0 ? 0 : Math.min(upperBound(highest), max.get()));
+        return interval;
+    }
+
+    // Short human readable summary in microseconds, used for log lines.
+    public String summary() {
+        return "n=" + getCount()
+                + " p50=" + (getPercentile(50) / 1000) + "us"
+                + " p90=" + (getPercentile(90) / 1000) + "us"
+                + " p99=" + (getPercentile(99) / 1000) + "us"
+                + " p99.9=" + (getPercentile(99.9) / 1000) + "us"
+                + " max=" + (getMax() / 1000) + "us";
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+        int sub = (int) (value >>> (magnitude - 1)) & (SUB_COUNT - 1);
+        return magnitude * SUB_COUNT + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        int magnitude = bucket / SUB_COUNT;
+        int sub = bucket % SUB_COUNT;
+        if (magnitude == 0) {
+            return sub;
+        }
+        return ((long) (SUB_COUNT + sub + 1) << (magnitude - 1)) - 1;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * MoveHistory records the columns played in a game, one byte per move, and
+ * keeps the comma separated game record ("4,3,4,5") up to date as moves are
+ * added.  The record is needed several times when a game ends (GAME_REPORT
+ * for each bot, GAME_ABORT, logGame), so toString() builds the String once
+ * from the ready made text and returns the same String until the next move.
+ * Columns are 1 to 127.  Not thread safe; a game is only touched by the
+ * CommandProcessor.
+ */
+
+package cw_generic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class MoveHistory {
+    private byte[] moves;
+    private int count;
+    private byte[] text;            // ASCII game record, without a trailing comma
+    private int length;
+    private String record;          // Cached toString(), null after a change
+
+    public MoveHistory(int capacity) {
+        this.moves = new byte[Math.max(1, capacity)];
+        this.text = new byte[Math.max(1, capacity) * 2];
+    }
+
+    public void add(int move) {
+        if (move < 1 || move > 127) {
+            throw new IllegalArgumentException("Move " + move + " out of range");
+        }
+        if (count == moves.length) {
+            moves = Arrays.copyOf(moves, count * 2);
+        }
+        moves[count++] = (byte) move;
+        int need = (length > 0 ? 1 : 0) + (move >= 100 ? 3 : move >= 10 ? 2 : 1);
+        if (length + need > text.length) {
+            text = Arrays.copyOf(text, text.length * 2 + need);
+        }
+        if (length > 0) {
+            text[length++] = ',';
+        }
+        if (move >= 100) {
+            text[length++] = (byte) ('0' + move / 100);
+        }
+        if (move >= 10) {
+            text[length++] = (byte) ('0' + move / 10 % 10);
+        }
+        text[length++] = (byte) ('0' + move % 10);
+        record = null;
+    }
+
+    public int get(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Move " + i + " of " + count);
+        }
+        return moves[i];
+    }
+
+    // The last move, or 0 if there is none.
+    public int last() {
+        return count == 0 ? 0 : moves[count - 1];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        count = 0;
+        length = 0;
+        record = null;
+    }
+
+    // The game record, e.g. "4,3,4,5"; empty if no move has been made.
+    @Override
+    public String toString() {
+        if (record == null) {
+            record = new String(text, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        return record;
+    }
+}
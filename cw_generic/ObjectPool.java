@@ -0,0 +1,44 @@
+/*
+ * ObjectPool is a bounded free list of reusable objects.  The Command and
+ * CmdPack envelopes are recycled through it so that a busy game server does
+ * not allocate two objects for every message it receives or sends.
+ * poll() returns null when the pool is empty (the caller then creates a new
+ * object) and offer() drops the object when the pool is full, so a pool can
+ * never hold more than its capacity and a capacity of 0 turns pooling off.
+ * Objects are handed back last in, first out, which keeps the ones in use
+ * warm in the cache.  Thread safe: objects are usually taken by one thread
+ * and given back by another.
+ */
+
+package cw_generic;
+
+public class ObjectPool<T> {
+    private final Object[] free;
+    private int size;
+
+    public ObjectPool(int capacity) {
+        this.free = new Object[Math.max(0, capacity)];
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized T poll() {
+        if (size == 0) {
+            return null;
+        }
+        T item = (T) free[--size];
+        free[size] = null;
+        return item;
+    }
+
+    public synchronized boolean offer(T item) {
+        if (size == free.length) {
+            return false;
+        }
+        free[size++] = item;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * OpeningStats is the opening tree of a challenge, built up from the games
+ * the server finishes: for every position among the first cw.openings.depth
+ * moves (default 16) of a game, how often the player who moved into it went
+ * on to win, draw or lose.  Nothing is read back from the database; a
+ * restarted server starts a fresh tree.
+ *
+ * The tree is not stored as a tree.  Positions are found by their Zobrist
+ * keys, the ones the GameManager has kept while the game was played, in a
+ * PositionCache of cw.openings.size entries (default 2^18), so transposed
+ * move orders share their statistics and the positions played least often
+ * are the first to make room.  A position's three counts are packed into its
+ * long, 21 bits each, and recording a game is one add() per move.  A count
+ * about to overflow halves all three, which keeps the proportions and lets
+ * old games weigh less than new ones.
+ *
+ * record() runs on the CommandProcessor; describe() answers the web
+ * interface's openingStats call on a Thrift thread, replaying the moves in
+ * rules of its own.  Only challenges whose rules key positions and list
+ * their moves (connect four) have statistics.
+ */
+
+package cw_generic;
+
+import java.util.Random;
+
+public class OpeningStats {
+    private static final int BITS = 21;                     // Per count
+    private static final long COUNT = (1L << BITS) - 1;
+    private static final long DRAW = 1L << BITS;            // One draw
+    private static final long LOSS = 1L << (2 * BITS);      // One loss
+    private static final long HIGH = 1L << (BITS - 1) | DRAW << (BITS - 1) | LOSS << (BITS - 1);  // Top bit of each count
+    private static final long LOW = 1L | DRAW | LOSS;       // Bottom bit of each count
+
+    private final ChallengeType challenge;
+    private final PositionCache counts = PositionCache.fromConfig("openings", 1 << 18);
+    private final int depth = ServerConfig.getInt("openings.depth", 16);
+    private long games;
+
+    public OpeningStats(ChallengeType challenge) {
+        this.challenge = challenge;
+    }
+
+    // Count a finished game: the position after each of its first moves is
+    // credited to the seat which made that move.  Games whose rules do not
+    // key positions are ignored.
+    public void record(GameManager g) {
+        int plies = Math.min(g.getPositionCount() - 1, depth);
+        if (plies <= 0) {
+            return;
+        }
+        int players = g.getPlayerCount();
+        int victor = g.getVictor();
+        for (int i = 1; i <= plies; i++) {
+            long delta = victor == 0 ? DRAW : victor == g.getSeatBID((i - 1) % players) ? 1 : LOSS;
+            long key = g.getPositionKey(i);
+            long sum = counts.add(key, delta);
+            if ((sum & HIGH) != 0) {
+                counts.put(key, (sum & ~LOW) >>> 1);
+            }
+        }
+        games++;
+    }
+
+    // The statistics of each move from the position after moves (a game
+    // record, "" for the start), as "move:wins:draws:losses" separated by
+    // ';' and counted for the player making the move.  Moves never played
+    // are left out; an illegal record or rules which cannot list their
+    // moves give "".
+    public String describe(String moves) {
+        String[] played = moves.length() == 0 ? new String[0] : moves.split(",");
+        GameRules rules = replay(played, null);
+        String[] next = rules == null ? null : rules.listMoves();
+        if (next == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String move : next) {
+            GameRules child = replay(played, move);
+            long value = child == null ? PositionCache.ABSENT : counts.get(child.getPositionKey());
+            if (value == PositionCache.ABSENT || value == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(move).append(':').append(value & COUNT).append(':').append(value >>> BITS & COUNT)
+                    .append(':').append(value >>> (2 * BITS) & COUNT);
+        }
+        return sb.toString();
+    }
+
+    // Fresh rules after played and then extra (if not null), or null if a
+    // move is illegal.  Seats move in turn.
+    private GameRules replay(String[] played, String extra) {
+        int players = challenge.getPlayers();
+        GameRules rules = challenge.newRules(players);
+        rules.init(new Random(0));
+        for (int i = 0; i < played.length; i++) {
+            if (rules.apply(i % players, played[i].trim(), 0) != null) {
+                return null;
+            }
+        }
+        if (extra != null && rules.apply(played.length % players, extra, 0) != null) {
+            return null;
+        }
+        return rules;
+    }
+
+    // Games recorded (by the CommandProcessor).
+    public long getGames() {
+        return games;
+    }
+
+    // Positions with statistics.
+    public int size() {
+        return counts.size();
+    }
+}
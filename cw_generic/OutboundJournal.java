@@ -0,0 +1,204 @@
+/*
+ * The OutboundJournal remembers game relevant messages which have been
+ * written to the switch but not yet acknowledged, so that a dropped switch
+ * connection does not silently lose them.
+ *
+ * The switch protocol has no explicit acknowledgements.  Instead:
+ *   - GAME_INITIALIZE and ACTION_REQUEST expect an answer from the bot.  They
+ *     stay pending until any command from that bot arrives.
+ *   - GAME_REPORT and GAME_ABORT (to a bot) expect no answer.  They are
+ *     treated as unconfirmed if they were written less than "window"
+ *     milliseconds before the link failed.
+ *   - EXECUTE_PROCEDURE (to the switch) is only kept if its write failed: a
+ *     procedure which was written may have run, and running insert_gamedata
+ *     twice would log the game twice.
+ *   - A message whose write failed is always unconfirmed.
+ * Only the latest pending message per bot is kept; a newer message to the
+ * same bot supersedes the older one.
+ *
+ * A bot bound message is journaled (begin) before it is written, because the
+ * bot's answer may be read on the listener thread before the write returns;
+ * record() then stamps it, or marks it failed.  The pack stays the writer's
+ * until record(): an answer which arrives in between only marks the entry,
+ * and record() drops it.
+ *
+ * After a reconnect the CommandProcessor takes the unconfirmed entries
+ * (takeUnconfirmed) and reconciles each against current game state before
+ * sending it again.
+ *
+ * The journal owns the packs it keeps: a pack goes back to its pool when it
+ * is acknowledged, superseded or forgotten, and entries are reused, so
+ * recording an ACTION_REQUEST allocates nothing.  Packs handed out by
+ * takeUnconfirmed belong to the caller.
+ */
+
+package cw_generic;
+
+import java.util.*;
+
+public class OutboundJournal {
+    private final IntMap<Entry> pending = new IntMap<Entry>();                     // Latest message per bot
+    private final ArrayDeque<Entry> procedures = new ArrayDeque<Entry>();          // Switch bound EXECUTE_PROCEDUREs
+    private final ArrayDeque<Entry> spare = new ArrayDeque<Entry>();               // Entries to reuse
+    private final long window;
+    private final int maxEntries;
+    private final String overflowMetric;
+    private long linkDown;               // Time the last link failure was noticed (0 = link up)
+
+    public static class Entry {
+        public CmdPack pack;
+        long written;
+        boolean failed;
+        boolean writing;        // Between begin() and record(): the pack is the writer's
+        boolean acknowledged;   // Answered while still being written
+    }
+
+    // metrics is the prefix of the lane's metric names (see ServerMetrics).
+    public OutboundJournal(String metrics, long window, int maxEntries) {
+        this.overflowMetric = metrics + "journal.overflow";
+        this.window = window;
+        this.maxEntries = maxEntries;
+    }
+
+    public static boolean isJournaled(CmdPack pack) {
+        String type = pack.cmd.getCommandType();
+        if (pack.getBID() == 0) {
+            return "EXECUTE_PROCEDURE".equals(type);
+        }
+        return pack.getBID() > 0 && ("GAME_INITIALIZE".equals(type) || "ACTION_REQUEST".equals(type)
+                || "GAME_REPORT".equals(type) || "GAME_ABORT".equals(type));
+    }
+
+    // Called by the CommandSender before writing a pack to a bot.  The pack
+    // supersedes the bot's pending message.
+    public synchronized void begin(CmdPack pack) {
+        if (pack.getBID() <= 0 || !isJournaled(pack)) {
+            return;
+        }
+        Entry e = pending.get(pack.getBID());
+        if (e == null) {
+            if (pending.size() >= maxEntries) {
+                ServerMetrics.increment(overflowMetric);
+                return;
+            }
+            e = entry(pack, Clock.now(), false);
+            e.writing = true;
+            pending.put(pack.getBID(), e);
+            return;
+        }
+        if (!e.writing) {
+            e.pack.release();   // Written earlier, so it is ours
+        }
+        e.pack = pack;
+        e.written = Clock.now();
+        e.failed = false;
+        e.writing = true;
+        e.acknowledged = false;
+    }
+
+    // Called by the CommandSender after writing a pack (failed if the write
+    // did not complete).  Returns true if the journal has taken the pack;
+    // otherwise the caller still owns it.
+    public synchronized boolean record(CmdPack pack, boolean failed) {
+        if (!isJournaled(pack)) {
+            return false;
+        }
+        if (pack.getBID() == 0) {
+            if (!failed) {
+                return false;
+            }
+            procedures.add(entry(pack, Clock.now(), true));
+            while (procedures.size() > maxEntries) {
+                ServerMetrics.increment(overflowMetric);
+                recycle(procedures.removeFirst());
+            }
+            return true;
+        }
+        Entry e = pending.get(pack.getBID());
+        if (e == null || e.pack != pack) {
+            return false;       // Not journaled, or superseded in the same batch
+        }
+        e.writing = false;
+        if (e.acknowledged && !failed) {
+            pending.remove(pack.getBID());
+            recycle(e);
+            return true;
+        }
+        e.written = Clock.now();
+        e.failed = failed;
+        e.acknowledged = false;
+        return true;
+    }
+
+    // Any command received from a bot proves it has seen what we sent it.
+    public synchronized void acknowledge(int bid) {
+        if (bid > 0) {
+            Entry e = pending.get(bid);
+            if (e == null) {
+                return;
+            }
+            if (e.writing) {
+                e.acknowledged = true;
+            } else {
+                pending.remove(bid);
+                recycle(e);
+            }
+        }
+    }
+
+    private Entry entry(CmdPack pack, long written, boolean failed) {
+        Entry e = spare.poll();
+        if (e == null) {
+            e = new Entry();
+        }
+        e.pack = pack;
+        e.written = written;
+        e.failed = failed;
+        e.writing = false;
+        e.acknowledged = false;
+        return e;
+    }
+
+    private void recycle(Entry e) {
+        e.pack.release();
+        e.pack = null;
+        spare.push(e);
+    }
+
+    public synchronized void linkDown() {
+        if (linkDown == 0) {
+            linkDown = Clock.now();
+        }
+    }
+
+    // Remove and return every entry that may not have reached its destination
+    // before the link failed, oldest first.  Entries still being written stay:
+    // their writer has not finished with the pack.
+    public synchronized List<Entry> takeUnconfirmed() {
+        List<Entry> out = new ArrayList<Entry>(procedures);
+        procedures.clear();
+        long cutoff = (linkDown == 0 ? Clock.now() : linkDown) - window;
+        List<Entry> latest = new ArrayList<Entry>(pending.size());
+        pending.addValuesTo(latest);
+        for (Entry e : latest) {
+            if (e.writing) {
+                continue;
+            }
+            pending.remove(e.pack.getBID());
+            String type = e.pack.cmd.getCommandType();
+            boolean expectsReply = "GAME_INITIALIZE".equals(type) || "ACTION_REQUEST".equals(type);
+            if (e.failed || expectsReply || e.written >= cutoff) {
+                out.add(e);
+            } else {
+                recycle(e);
+            }
+        }
+        linkDown = 0;
+        Collections.sort(out, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.written < b.written ? -1 : (a.written == b.written ? 0 : 1);
+            }
+        });
+        return out;
+    }
+}
@@ -10,9 +10,15 @@
 
 package cw_generic;
 
+import java.util.Iterator;
+import java.util.List;
+
 public class OutputPack {
+    private static final int CAPACITY = ServerConfig.getInt("outQueue.capacity", 0);   // 0 = unbounded
+    private static final String MESSAGE = "SERVER_MESSAGE<<";     // Start of the only web output which may be shed
+
     private int bid;
-        private long exp = 10000 + System.currentTimeMillis();
+        private long exp = 10000 + Clock.now();
         private String cString;
 
         public OutputPack(int bid, String cString){
@@ -31,4 +37,55 @@ public class OutputPack {
         public long getEXP(){
             return this.exp;
         }
+
+        // Add pack to outQueue, which holds at most cw.outQueue.capacity
+        // packs.  Only server messages are shed (counted as outQueue.shed,
+        // after the lane's metrics prefix): a full outQueue drops a new one,
+        // and makes room for anything else by dropping the oldest one queued.
+        // What a user waits for (GAME_INITIALIZE, ACTION_REQUEST, ...) is
+        // always added, over capacity if need be (counted as
+        // outQueue.overCapacity), or the user's game would hang.
+        public static boolean offer(List<OutputPack> outQueue, OutputPack pack, String metrics){
+            synchronized(outQueue){
+                if(!hasRoom(outQueue, pack.cString.startsWith(MESSAGE), metrics)){
+                    return false;
+                }
+                outQueue.add(pack);
+                return true;
+            }
+        }
+
+        // Same for the web output pack carries, which is released either way.
+        public static boolean offer(List<OutputPack> outQueue, CmdPack pack, String metrics){
+            boolean room;
+            synchronized(outQueue){
+                room = hasRoom(outQueue, "SERVER_MESSAGE".equals(pack.cmd.getCommandType()), metrics);
+                if(room){
+                    outQueue.add(pack.getOutPack());
+                }
+            }
+            pack.release();
+            return room;
+        }
+
+        // False if a new pack, a server message if message, is to be shed.
+        // Called holding outQueue's lock.
+        private static boolean hasRoom(List<OutputPack> outQueue, boolean message, String metrics){
+            if(CAPACITY <= 0 || outQueue.size() < CAPACITY){
+                return true;
+            }
+            if(message){
+                ServerMetrics.increment(metrics + "outQueue.shed");
+                return false;
+            }
+            for(Iterator<OutputPack> it = outQueue.iterator(); it.hasNext();){
+                if(it.next().cString.startsWith(MESSAGE)){
+                    it.remove();
+                    ServerMetrics.increment(metrics + "outQueue.shed");
+                    return true;
+                }
+            }
+            ServerMetrics.increment(metrics + "outQueue.overCapacity");
+            return true;
+        }
 }
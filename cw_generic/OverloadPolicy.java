@@ -0,0 +1,27 @@
+/*
+ * What a BoundedQueue does with a new element when it is full.
+ *   BLOCK  - the producer waits for space.  For commandQueue this stops the
+ *            SwitchListener from reading, which pushes back on the switch
+ *            through TCP flow control.
+ *   SHED   - low priority elements (as decided by the queue's Shedder) are
+ *            dropped; everything else waits as with BLOCK.
+ *   REJECT - new requests (WEB_START_GAME on the commandQueue) are refused
+ *            and low priority elements dropped as with SHED; everything
+ *            else waits as with BLOCK.
+ * Each outcome is counted in ServerMetrics as <queue>.blocked, <queue>.shed
+ * or <queue>.rejected.
+ */
+
+package cw_generic;
+
+public enum OverloadPolicy {
+    BLOCK, SHED, REJECT;
+
+    public static OverloadPolicy forName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return BLOCK;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * PositionCache is a bounded map from Zobrist position keys to a long each,
+ * shared by every thread which wants to know something about a position:
+ * the house engines' search results, opening statistics and the like.  The
+ * value is whatever its owner packs into 64 bits, so lookups and updates
+ * never allocate.
+ *
+ * The cache is split into segments, each guarded by its own lock and chosen
+ * by the key's top bits, so threads working on different positions rarely
+ * meet.  A segment keeps a fixed array of entries and an open addressing
+ * index from key to entry; get(), put() and add() are O(1).  When a segment
+ * is full the clock algorithm picks the entry to drop: the hand sweeps the
+ * entries, sparing (and clearing the mark of) each one read since the hand
+ * last passed, and takes the first unmarked one.  Positions that keep coming
+ * back stay; one-off positions make room.
+ */
+
+package cw_generic;
+
+public class PositionCache {
+    public static final long ABSENT = Long.MIN_VALUE;   // get() result for an unknown position
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    // A cache of about capacity entries in segments locks (both rounded up to
+    // powers of two).
+    public PositionCache(int capacity, int segments) {
+        int count = powerOfTwo(segments);
+        int perSegment = Math.max(2, powerOfTwo((capacity + count - 1) / count));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment(perSegment);
+        }
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    // A cache sized by cw.<name>.size entries (default capacity) and
+    // cw.<name>.segments (default 64).
+    public static PositionCache fromConfig(String name, int capacity) {
+        return new PositionCache(ServerConfig.getInt(name + ".size", capacity), ServerConfig.getInt(name + ".segments", 64));
+    }
+
+    public long get(long key) {
+        return segment(key).get(key);
+    }
+
+    public void put(long key, long value) {
+        segment(key).put(key, value, false);
+    }
+
+    // Add delta to key's value (an unknown position counts as 0) and return
+    // the sum.
+    public long add(long key, long delta) {
+        return segment(key).put(key, delta, true);
+    }
+
+    public int getCapacity() {
+        return segments.length * segments[0].keys.length;
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                n += s.size;
+            }
+        }
+        return n;
+    }
+
+    public long getHits() {
+        long n = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                n += s.hits;
+            }
+        }
+        return n;
+    }
+
+    public long getMisses() {
+        long n = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                n += s.misses;
+            }
+        }
+        return n;
+    }
+
+    public long getEvictions() {
+        long n = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                n += s.evictions;
+            }
+        }
+        return n;
+    }
+
+    private Segment segment(long key) {
+        return segments.length == 1 ? segments[0] : segments[(int) (mix(key) >>> segmentShift)];
+    }
+
+    private static int powerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    // Zobrist keys are random already, but the cache may also be fed keys
+    // with structure; spread them over the whole table.
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        return key ^ key >>> 33;
+    }
+
+    private static final class Segment {
+        final long[] keys;
+        final long[] values;
+        final boolean[] referenced;
+        final int[] index;          // Entry + 1 per slot, 0 = empty; twice the entries
+        int size;
+        int hand;
+        long hits;
+        long misses;
+        long evictions;
+
+        Segment(int entries) {
+            keys = new long[entries];
+            values = new long[entries];
+            referenced = new boolean[entries];
+            index = new int[entries * 2];
+        }
+
+        synchronized long get(long key) {
+            int e = find(key);
+            if (e < 0) {
+                misses++;
+                return ABSENT;
+            }
+            hits++;
+            referenced[e] = true;
+            return values[e];
+        }
+
+        synchronized long put(long key, long value, boolean add) {
+            int e = find(key);
+            if (e >= 0) {
+                referenced[e] = true;
+                values[e] = add ? values[e] + value : value;
+                return values[e];
+            }
+            if (size < keys.length) {
+                e = size++;
+            } else {
+                while (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) & (keys.length - 1);
+                }
+                e = hand;
+                hand = (hand + 1) & (keys.length - 1);
+                unlink(keys[e]);
+                evictions++;
+            }
+            keys[e] = key;
+            values[e] = value;
+            referenced[e] = false;
+            link(key, e);
+            return value;
+        }
+
+        private int find(long key) {
+            int mask = index.length - 1;
+            for (int i = (int) mix(key) & mask; index[i] != 0; i = (i + 1) & mask) {
+                if (keys[index[i] - 1] == key) {
+                    return index[i] - 1;
+                }
+            }
+            return -1;
+        }
+
+        private void link(long key, int e) {
+            int mask = index.length - 1;
+            int i = (int) mix(key) & mask;
+            while (index[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            index[i] = e + 1;
+        }
+
+        private void unlink(long key) {
+            int mask = index.length - 1;
+            int i = (int) mix(key) & mask;
+            while (keys[index[i] - 1] != key) {
+                i = (i + 1) & mask;
+            }
+            index[i] = 0;
+            // Re-link the rest of the cluster so lookups do not stop early.
+            for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+                int e = index[j] - 1;
+                index[j] = 0;
+                link(keys[e], e);
+            }
+        }
+    }
+}
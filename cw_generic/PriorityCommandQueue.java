@@ -0,0 +1,289 @@
+/*
+ * The PriorityCommandQueue splits incoming commands into two lanes so that a
+ * burst of housekeeping work cannot delay moves that are already on a bot's
+ * clock.
+ *   urgent       - LOGIN_INFORM, GAME_INITIALIZE, ACTION_REPLY,
+ *                  DISCONNECT_BOT_REMOTE, WEB_START_GAME and anything
+ *                  unknown.  All traffic belonging to one bot stays in this
+ *                  lane, so its ordering is never changed.
+ *   housekeeping - CHALLENGE, CLEAN_OUTPUT, SERVER_MESSAGE and SET_MODE.
+ * take() serves the urgent lane first.  Two rules keep housekeeping from
+ * starving: after maxBurst consecutive urgent commands one housekeeping
+ * command is served if any is waiting, and a housekeeping command which has
+ * waited longer than maxDefer milliseconds is served next regardless.
+ * Within each lane commands stay in FIFO order.
+ */
+
+package cw_generic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+public class PriorityCommandQueue extends AbstractQueue<Command> implements BlockingQueue<Command> {
+    private final Lane urgent = new Lane();
+    private final Lane housekeeping = new Lane();
+    private final int capacity;               // Total over both lanes, 0 = unbounded
+    private final int maxBurst;
+    private final long maxDeferNanos;
+    private final String promotedMetric;
+    private int burst;                        // Urgent commands served since the last housekeeping one
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // name is the queue's metric name, e.g. "commandQueue".
+    public PriorityCommandQueue(String name, int capacity, int maxBurst, long maxDeferMillis) {
+        this.promotedMetric = name + ".housekeepingPromoted";
+        this.capacity = capacity;
+        this.maxBurst = maxBurst;
+        this.maxDeferNanos = TimeUnit.MILLISECONDS.toNanos(maxDeferMillis);
+    }
+
+    public static boolean isHousekeeping(Command cmd) {
+        String type = cmd.getCommandType();
+        return "CHALLENGE".equals(type) || "CLEAN_OUTPUT".equals(type)
+                || "SERVER_MESSAGE".equals(type) || "SET_MODE".equals(type);
+    }
+
+    @Override
+    public boolean offer(Command cmd) {
+        if (cmd == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            if (capacity > 0 && size() >= capacity) {
+                return false;
+            }
+            enqueue(cmd);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(Command cmd) throws InterruptedException {
+        if (cmd == null) {
+            throw new NullPointerException();
+        }
+        lock.lockInterruptibly();
+        try {
+            while (capacity > 0 && size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(cmd);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean offer(Command cmd, long timeout, TimeUnit unit) throws InterruptedException {
+        if (cmd == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (capacity > 0 && size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(cmd);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Command cmd) {
+        if (isHousekeeping(cmd)) {
+            housekeeping.add(cmd, System.nanoTime());
+        } else {
+            urgent.add(cmd, 0);
+        }
+        notEmpty.signal();
+    }
+
+    // True if the housekeeping lane is served next.  Must hold the lock.
+    private boolean housekeepingNext() {
+        return housekeeping.size > 0 && (urgent.size == 0 || burst >= maxBurst
+                || System.nanoTime() - housekeeping.oldestStamp() > maxDeferNanos);
+    }
+
+    // Must hold the lock.
+    private Command dequeue() {
+        Command cmd;
+        if (housekeepingNext()) {
+            if (urgent.size > 0) {
+                ServerMetrics.increment(promotedMetric);
+            }
+            cmd = housekeeping.remove();
+            burst = 0;
+        } else if (urgent.size > 0) {
+            cmd = urgent.remove();
+            burst++;
+        } else {
+            return null;
+        }
+        notFull.signal();
+        return cmd;
+    }
+
+    @Override
+    public Command poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Command take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Command cmd;
+            while ((cmd = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return cmd;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Command poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Command cmd;
+            while ((cmd = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return cmd;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The command take() would return next if nothing else arrives (and no
+    // housekeeping command waits past maxDefer in the meantime).
+    @Override
+    public Command peek() {
+        lock.lock();
+        try {
+            if (housekeepingNext()) {
+                return housekeeping.peek();
+            }
+            return urgent.size > 0 ? urgent.peek() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return urgent.size + housekeeping.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        return capacity > 0 ? capacity - size() : Integer.MAX_VALUE;
+    }
+
+    public int drainTo(Collection<? super Command> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super Command> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            Command cmd;
+            while (n < maxElements && (cmd = dequeue()) != null) {
+                c.add(cmd);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Weakly consistent snapshot, urgent lane first.
+    @Override
+    public Iterator<Command> iterator() {
+        lock.lock();
+        try {
+            List<Command> snapshot = new ArrayList<Command>(urgent.size + housekeeping.size);
+            urgent.copyTo(snapshot);
+            housekeeping.copyTo(snapshot);
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Growable circular array of commands with their enqueue times.
+    private static class Lane {
+        private Command[] items = new Command[64];
+        private long[] stamps = new long[64];
+        private int head;
+        private int size;
+
+        void add(Command cmd, long stamp) {
+            if (size == items.length) {
+                grow();
+            }
+            int idx = (head + size) & (items.length - 1);
+            items[idx] = cmd;
+            stamps[idx] = stamp;
+            size++;
+        }
+
+        Command remove() {
+            Command cmd = items[head];
+            items[head] = null;
+            head = (head + 1) & (items.length - 1);
+            size--;
+            return cmd;
+        }
+
+        Command peek() {
+            return items[head];
+        }
+
+        long oldestStamp() {
+            return stamps[head];
+        }
+
+        void copyTo(List<Command> out) {
+            for (int i = 0; i < size; i++) {
+                out.add(items[(head + i) & (items.length - 1)]);
+            }
+        }
+
+        private void grow() {
+            Command[] newItems = new Command[items.length * 2];
+            long[] newStamps = new long[items.length * 2];
+            for (int i = 0; i < size; i++) {
+                int idx = (head + i) & (items.length - 1);
+                newItems[i] = items[idx];
+                newStamps[i] = stamps[idx];
+            }
+            items = newItems;
+            stamps = newStamps;
+            head = 0;
+        }
+    }
+}
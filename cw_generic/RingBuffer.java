@@ -0,0 +1,200 @@
+/*
+ * The RingBuffer is a preallocated, sequence based alternative to the
+ * LinkedBlockingQueue used between the game server threads.  Producers claim
+ * a sequence number with a single CAS, store their element in the matching
+ * slot and publish it by recording the slot's "round" in an availability
+ * array.  The consumer owns a plain read sequence and simply checks whether
+ * the next slot has been published.  No nodes are allocated per element and
+ * no lock is taken unless the Blocking wait strategy has a sleeping consumer.
+ *
+ * Any number of threads may produce, but there must be exactly ONE consuming
+ * thread (the CommandProcessor for commandQueue, a CommandSender for
+ * sendQueue).  The buffer implements BlockingQueue so it can be swapped in
+ * without changing any producer or consumer code.  add() waits for space
+ * instead of failing, matching the never-full behaviour of the unbounded
+ * queues it replaces.  iterator() returns a weakly consistent snapshot.
+ */
+
+package cw_generic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+public class RingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private final Object[] slots;
+    private final int mask;
+    private final int shift;
+    private final AtomicIntegerArray available;   // Round of the sequence last published in each slot
+    private final AtomicLong claimed = new AtomicLong(-1);   // Highest sequence claimed by a producer
+    private final AtomicLong read = new AtomicLong(0);       // Next sequence the consumer will read
+    private final WaitStrategy waitStrategy;
+
+    public RingBuffer(int capacity, WaitStrategy waitStrategy) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        this.shift = Integer.numberOfTrailingZeros(size);
+        this.available = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            available.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    // True when the consumer's next slot has been published.
+    public boolean isReady() {
+        long seq = read.get();
+        return available.get((int) seq & mask) == (int) (seq >>> shift);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long seq;
+        do {
+            seq = claimed.get() + 1;
+            if (seq - slots.length >= read.get()) {
+                return false;   // Full
+            }
+        } while (!claimed.compareAndSet(seq - 1, seq));
+        int idx = (int) seq & mask;
+        slots[idx] = e;
+        available.set(idx, (int) (seq >>> shift));
+        waitStrategy.signal();
+        return true;
+    }
+
+    @Override
+    public boolean add(E e) {
+        try {
+            put(e);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    public void put(E e) throws InterruptedException {
+        int spins = 0;
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (++spins < 100) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(50000);
+            }
+        }
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(50000);
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long seq = read.get();
+        int idx = (int) seq & mask;
+        if (available.get(idx) != (int) (seq >>> shift)) {
+            return null;
+        }
+        E e = (E) slots[idx];
+        slots[idx] = null;
+        read.lazySet(seq + 1);
+        return e;
+    }
+
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            waitStrategy.waitFor(this, Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            if (System.nanoTime() >= deadline) {
+                return null;
+            }
+            waitStrategy.waitFor(this, deadline);
+        }
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long seq = read.get();
+        int idx = (int) seq & mask;
+        if (available.get(idx) != (int) (seq >>> shift)) {
+            return null;
+        }
+        return (E) slots[idx];
+    }
+
+    @Override
+    public int size() {
+        long size = claimed.get() + 1 - read.get();
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+
+    public int remainingCapacity() {
+        return slots.length - size();
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>();
+        long end = claimed.get();
+        for (long seq = read.get(); seq <= end; seq++) {
+            int idx = (int) seq & mask;
+            Object e = slots[idx];
+            if (e != null && available.get(idx) == (int) (seq >>> shift)) {
+                snapshot.add((E) e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * The ServerConfig class collects the optional tuning parameters of the game
+ * server.  Parameters are read from Java system properties prefixed with
+ * "cw." (e.g. -Dcw.pipeline=ring) so that the existing command line
+ * (log4j configuration and challenge interval) does not change.  Every
+ * parameter has a default which reproduces the original behaviour.
+ */
+
+package cw_generic;
+
+public class ServerConfig {
+
+    public static String getString(String name, String def) {
+        return System.getProperty("cw." + name, def);
+    }
+
+    public static int getInt(String name, int def) {
+        try {
+            return Integer.parseInt(getString(name, String.valueOf(def)).trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static long getLong(String name, long def) {
+        try {
+            return Long.parseLong(getString(name, String.valueOf(def)).trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static double getDouble(String name, double def) {
+        try {
+            return Double.parseDouble(getString(name, String.valueOf(def)).trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean def) {
+        return Boolean.parseBoolean(getString(name, String.valueOf(def)).trim());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * ServerMetrics keeps process wide event counters (commands shed, producers
+ * blocked, requests rejected, ...).  Counters are created on first use and
+ * can be incremented from any thread without locking.  A one line summary of
+ * all non-zero counters is written to the log with every CHALLENGE event.
+ * Named LatencyHistograms are kept the same way.  They are never cleared:
+ * each reader passes histogramSummary() its own map of the snapshots it
+ * reported last, so each of its log lines covers its own interval whoever
+ * else is reading.
+ * When one process hosts several challenges, the metrics of a challenge's
+ * queues, journal and switch connections are named after it
+ * ("PUBLIC_CONNECT_FOUR:commandQueue.shed", see lanePrefix()), and its log
+ * line shows its own metrics and the process wide ones, which have no prefix.
+ */
+
+package cw_generic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ServerMetrics {
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public static long increment(String name) {
+        return add(name, 1);
+    }
+
+    public static long add(String name, long delta) {
+        AtomicLong c = counters.get(name);
+        if (c == null) {
+            AtomicLong created = new AtomicLong();
+            c = counters.putIfAbsent(name, created);
+            if (c == null) {
+                c = created;
+            }
+        }
+        return c.addAndGet(delta);
+    }
+
+    public static long get(String name) {
+        AtomicLong c = counters.get(name);
+        return c == null ? 0 : c.get();
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram h = histograms.get(name);
+        if (h == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            h = histograms.putIfAbsent(name, created);
+            if (h == null) {
+                h = created;
+            }
+        }
+        return h;
+    }
+
+    // The prefix of the metric names of a lane ("-NAME", see GameServer):
+    // "NAME:", or nothing for a process hosting a single challenge.
+    public static String lanePrefix(String lane) {
+        return lane.length() > 0 ? lane.substring(1) + ":" : "";
+    }
+
+    // Metrics of lane prefix, and process wide ones, are shown to it.
+    private static boolean belongsTo(String name, String prefix) {
+        return prefix.length() == 0 || name.startsWith(prefix) || name.indexOf(':') < 0;
+    }
+
+    public static String histogramSummary(Map<String, LatencyHistogram> reported) {
+        return histogramSummary("", reported);
+    }
+
+    // One line per histogram of lane prefix with samples since the caller's
+    // last call, whose snapshots are kept in reported (empty before the
+    // first call).
+    public static String histogramSummary(String prefix, Map<String, LatencyHistogram> reported) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+            if (!belongsTo(e.getKey(), prefix)) {
+                continue;
+            }
+            LatencyHistogram now = e.getValue().snapshot();
+            LatencyHistogram before = reported.put(e.getKey(), now);
+            LatencyHistogram interval = before == null ? now : now.since(before);
+            if (interval.getCount() > 0) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(e.getKey()).append(' ').append(interval.summary());
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String summary() {
+        return summary("");
+    }
+
+    // All non-zero counters of lane prefix.
+    public static String summary(String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            if (e.getValue().get() != 0 && belongsTo(e.getKey(), prefix)) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(e.getKey()).append('=').append(e.getValue().get());
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The ShardRouter spreads outgoing traffic over several switch connections.
+ * With -Dcw.switch.connections=K the game server opens K connections to the
+ * switch, each with its own SwitchListener, CommandSender and
+ * OutboundJournal.  Bots are assigned to connections by bid (see shardOf) and
+ * the switch is expected to route a bot's traffic over the same connection in
+ * both directions; each connection announces its shard as ":shard=i/K" in its
+ * REGISTER line.  Messages for the switch itself (bid 0) always use shard 0.
+ * The ShardRouter consumes the sendQueue and hands each pack to the queue of
+ * its shard, so a slow or broken connection only holds up its own bots.  A
+ * shard's queue is bounded like the sendQueue (cw.sendQueue.capacity and
+ * policy) and counted as sendQueue.shard<i>.  The router never waits for a
+ * shard: a pack which does not fit is shed if the policy allows, and
+ * otherwise held back, in order, until that shard's connection catches up
+ * (while it reconnects, say).  Held packs are counted as
+ * sendQueue.shard<i>.held and retried whenever the router wakes, at least
+ * every RETRY_MS.  Web
+ * output (negative bid) never reaches a connection and goes straight to the
+ * outQueue.
+ */
+
+package cw_generic;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ShardRouter extends Thread {
+    private static final long RETRY_MS = 10;    // Longest wait before held packs are retried
+    private final BlockingQueue<CmdPack> sendQueue;
+    private final List<BlockingQueue<CmdPack>> shardQueues;
+    private final List<ArrayDeque<CmdPack>> held = new ArrayList<ArrayDeque<CmdPack>>();  // Per shard, packs its queue had no room for
+    private final String[] heldMetrics;
+    private final List<OutputPack> outQueue;
+    private final String metrics;       // Prefix of the lane's metric names
+
+    public ShardRouter(BlockingQueue<CmdPack> sendQueue, List<BlockingQueue<CmdPack>> shardQueues, List<OutputPack> outQueue, String metrics) {
+        super("ShardRouter");
+        this.metrics = metrics;
+        this.sendQueue = sendQueue;
+        this.shardQueues = shardQueues;
+        this.outQueue = outQueue;
+        this.heldMetrics = new String[shardQueues.size()];
+        for (int i = 0; i < shardQueues.size(); i++) {
+            held.add(new ArrayDeque<CmdPack>());
+            heldMetrics[i] = metrics + "sendQueue.shard" + i + ".held";
+        }
+    }
+
+    // The connection bot bid belongs to.  The switch must use the same rule.
+    public static int shardOf(int bid, int shards) {
+        return bid <= 0 ? 0 : bid % shards;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                route(sendQueue.poll(RETRY_MS, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Retry the held packs, then route pack (if not null).  Never waits.
+    public void route(CmdPack pack) {
+        for (int i = 0; i < held.size(); i++) {
+            ArrayDeque<CmdPack> waiting = held.get(i);
+            while (!waiting.isEmpty() && shardQueues.get(i).offer(waiting.peek())) {
+                waiting.poll();
+            }
+        }
+        if (pack == null) {
+            return;
+        }
+        if (pack.getBID() < 0) {
+            OutputPack.offer(outQueue, pack, metrics);
+            return;
+        }
+        int shard = shardOf(pack.getBID(), shardQueues.size());
+        BlockingQueue<CmdPack> shardQueue = shardQueues.get(shard);
+        ArrayDeque<CmdPack> waiting = held.get(shard);
+        if (waiting.isEmpty() && shardQueue.offer(pack)) {
+            return;
+        }
+        if (BoundedQueue.drops(shardQueue, pack)) {
+            pack.release();     // Shed under overload
+            return;
+        }
+        waiting.add(pack);      // Behind the shard's earlier packs
+        ServerMetrics.increment(heldMetrics[shard]);
+    }
+
+    // Packs held back for shard.
+    public int getHeld(int shard) {
+        return held.get(shard).size();
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * SimultaneousRules are GameRules for games in which both players move at
+ * once, round by round (UnderCut, for instance).  There is no turn: both bots
+ * get an ACTION_REQUEST at the same time, apply() only records a bot's
+ * choice for the round, and once both choices are in (the GameManager keeps
+ * that barrier) resolveRound() settles the round in one go.  The terminal
+ * checks isWin() and isDraw() are asked after each resolved round.
+ */
+
+package cw_generic;
+
+public interface SimultaneousRules extends GameRules {
+
+    // Both seats have chosen: score the round and start the next one.
+    void resolveRound();
+
+    // What seat is told with its next ACTION_REQUEST, e.g. the opponent's
+    // choice in the last round ("-1" before the first round).
+    String getLastMove(int seat);
+}
@@ -6,11 +6,30 @@
  * any incomming commands from the switch.   A dedicated thread is spawned
  * to service the socket connection.  As commands are received, the thread
  * immediately puts them in the commandQueue.  If disconnected, the thread
- * attempts to reconnect periodically.
+ * attempts to reconnect with exponential backoff (cw.reconnect.min doubling up
+ * to cw.reconnect.max milliseconds, randomised by up to half the delay so a
+ * fleet of game servers does not reconnect in lock step).
+ * Every game relevant message written to the switch is kept in the
+ * OutboundJournal until the bot answers.  After a reconnect a
+ * SWITCH_RECONNECTED command asks the CommandProcessor to reconcile and
+ * resend whatever may have been lost with the old connection.
+ * With -Dcw.framing=binary the REGISTER line offers binary framing (see
+ * FrameCodec); if the switch accepts, both directions switch to frames.
+ * Otherwise, or if it has not answered within cw.framing.timeout
+ * milliseconds, a plain REGISTER line follows and the text protocol is used.
+ * When the game server uses several switch connections (see ShardRouter)
+ * there is one SwitchListener per connection and its shard number is
+ * announced in the REGISTER line.
+ * The REGISTER line names the challenge ("PUBLIC_CONNECT_FOUR:123456"); a
+ * process hosting several challenges opens separate connections for each.
 
  * The switch must send periodic “pings” to let the switch know that it is alive.
- * The Ping thread injects ping commands into the commandQueue which are
- * forwarded to the switch using standard means.
+ * The Ping thread writes SERVER_PING<<seq:timestamp every cw.ping.interval
+ * milliseconds.  A switch which echoes it back as SERVER_PONG<<seq:timestamp
+ * lets us measure the round trip, which is kept in the switch.rtt histogram.
+ * Once pongs have been seen on a connection, cw.ping.maxMissed unanswered
+ * pings in a row mark the link as dead and it is closed and reconnected.
+ * Switches that never answer pings are left alone.
  */
 
 package cw_generic;
@@ -25,18 +44,41 @@ public class SwitchListener extends Thread{
     private Socket socket;
     private InetAddress serverIP;
     private int serverPort;       
-    private static PrintWriter out;
+    private SwitchWriter out;
+    private boolean binaryFraming = ServerConfig.getString("framing", "text").equals("binary");
     public BlockingQueue<Command> commandQueue = new LinkedBlockingQueue();
     public BlockingQueue<CmdPack> sendQueue = new LinkedBlockingQueue();
     public List<OutputPack> outQueue = Collections.synchronizedList(new ArrayList<OutputPack>());
+    private OutboundJournal journal;
+    private long minBackoff = ServerConfig.getLong("reconnect.min", 500);
+    private long maxBackoff = ServerConfig.getLong("reconnect.max", 30000);
+    private Random random = new Random();
+    private int shard;
+    private int shards;
+    private String challenge;     // Challenge name and key for REGISTER
+    private String lane;          // Thread name suffix of the challenge ("" if alone)
+    private String metrics;       // Prefix of the lane's metric names
+    private long pingInterval = ServerConfig.getLong("ping.interval", 20000);
+    private int maxMissed = ServerConfig.getInt("ping.maxMissed", 3);
+    private int negotiationTimeout = ServerConfig.getInt("framing.timeout", 2000);
 
-    public SwitchListener(BlockingQueue<Command> commandQueue, BlockingQueue<CmdPack> sendQueue, List<OutputPack> outQueue, Logger logger){
+    public SwitchListener(String challenge, String lane, BlockingQueue<Command> commandQueue, BlockingQueue<CmdPack> sendQueue, List<OutputPack> outQueue, OutboundJournal journal, Logger logger){
+        this(challenge, lane, commandQueue, sendQueue, outQueue, journal, logger, 0, 1);
+    }
+
+    public SwitchListener(String challenge, String lane, BlockingQueue<Command> commandQueue, BlockingQueue<CmdPack> sendQueue, List<OutputPack> outQueue, OutboundJournal journal, Logger logger, int shard, int shards){
         try {
+            this.challenge = challenge;
+            this.lane = lane;
+            this.metrics = ServerMetrics.lanePrefix(lane);
+            this.shard = shard;
+            this.shards = shards;
             this.serverPort = 3000;
             this.serverIP = InetAddress.getLocalHost();
             this.commandQueue = commandQueue;
             this.sendQueue = sendQueue;
             this.outQueue = outQueue;
+            this.journal = journal;
             this.logger = logger;
         } catch (Exception e) {
             e.printStackTrace();
@@ -49,28 +91,90 @@ public class SwitchListener extends Thread{
 
     @Override
     public void run() {
-
+        long backoff = minBackoff;
+        boolean connectedBefore = false;
         while (true) {
             try {                
-                logger.info("Attempting to connect to SWITCH @ " + serverIP + ":" + serverPort);
+                logger.info("Attempting to connect to SWITCH @ " + serverIP + ":" + serverPort + shardName());
                 this.socket = new Socket(serverIP, serverPort);
-                logger.info("Connected to SWITCH!");
-                CommandSender cs = new CommandSender(this.socket, this.sendQueue, this.outQueue);
-                cs.start();
+                logger.info("Connected to SWITCH!" + shardName());
+                backoff = minBackoff;
+                InputStream rawIn = new BufferedInputStream(socket.getInputStream(), 16384);
+                String firstLine = null;
+                boolean binary = false;
+                if (binaryFraming) {
+                    // Offer binary framing; the switch's first line tells us
+                    // whether it accepted.  Nothing else is written until then.
+                    OutputStream rawOut = socket.getOutputStream();
+                    rawOut.write(("REGISTER<<" + registration() + ":framing=binary\n").getBytes("UTF-8"));
+                    rawOut.flush();
+                    socket.setSoTimeout(negotiationTimeout);
+                    try {
+                        firstLine = FrameCodec.readLine(rawIn);
+                        if (firstLine == null) {
+                            throw new EOFException("SWITCH closed during framing negotiation");
+                        }
+                    } catch (SocketTimeoutException e) {
+                        firstLine = null;   // A switch which does not know the offer says nothing
+                    }
+                    socket.setSoTimeout(0);
+                    binary = FrameCodec.ACCEPT.equals(firstLine);
+                    if (firstLine != null && firstLine.startsWith(FrameCodec.FRAMING)) {
+                        firstLine = null;   // The answer itself, not a command
+                    }
+                    logger.info("SWITCH framing: " + (binary ? "binary" : "text"));
+                }
+                out = new SwitchWriter(socket.getOutputStream(), binary);
+                CommandSender cs = new CommandSender(out, this.sendQueue, this.outQueue, this.journal, metrics);
+                Thread csThread = ThreadMode.start(cs, "CommandSender" + lane + (shards > 1 ? "-" + shard : ""));
                 //new Thread(new CommandSender(this.socket, this.sendQueue), "CommandSender").start();
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-                out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")), true);
-                PingThread pt = new PingThread(out);
-                pt.start();
-                out.println("REGISTER<<PUBLIC_CONNECT_FOUR:123456");
+                PingThread pt = new PingThread(out, socket);
+                ThreadMode.start(pt, "PingThread" + lane + (shards > 1 ? "-" + shard : ""));
+                if (!binary) {
+                    // Also after a refused offer: the switch has not registered us.
+                    out.writeCommand("REGISTER", registration());
+                    out.flush();
+                }
+                if (connectedBefore) {
+                    commandQueue.add(new Command("SWITCH_RECONNECTED", String.valueOf(shard)));
+                }
+                connectedBefore = true;
                 try {
-                    while (true) {
-                        String cmd = in.readLine();
-                        String[] parts = cmd.split("<<");
-                        String cmdType = parts[0];
-                        String metaData = parts[1];
-                        Command command = new Command(cmdType, socket.getInetAddress(), socket.getPort(), metaData);
-                        commandQueue.add(command);
+                    if (binary) {
+                        DataInputStream in = new DataInputStream(rawIn);
+                        Command command;
+                        while ((command = FrameCodec.readFrame(in)) != null) {
+                            if (command.getCommandType().equals("SERVER_PONG")) {
+                                pt.pong(command.getMetaData());
+                                command.release();
+                                continue;
+                            }
+                            journal.acknowledge(command.getBID());
+                            if (!BoundedQueue.enqueue(commandQueue, command)) {
+                                command.release();  // Shed under overload
+                            }
+                        }
+                    } else {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(rawIn, "UTF-8"));
+                        String cmd = firstLine;
+                        while (true) {
+                            if (cmd == null) {
+                                cmd = in.readLine();
+                            }
+                            String[] parts = cmd.split("<<");
+                            String cmdType = parts[0];
+                            String metaData = parts[1];
+                            cmd = null;
+                            if (cmdType.equals("SERVER_PONG")) {
+                                pt.pong(metaData);
+                                continue;
+                            }
+                            Command command = Command.obtain(cmdType, metaData);
+                            journal.acknowledge(command.getBID());
+                            if (!BoundedQueue.enqueue(commandQueue, command)) {
+                                command.release();  // Shed under overload
+                            }
+                        }
                     }
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -78,11 +182,12 @@ public class SwitchListener extends Thread{
                     e.printStackTrace();
                 } finally {
                     try {
+                        journal.linkDown();
                         this.socket.close();
                         pt.stopThread();
                         cs.stopThread();
-                        cs.interrupt(); //CommandSender sits in Blocking IO.  Interrupt Required.
-                        logger.error("Disconnected From SWITCH.  Retrying in 5s...");
+                        csThread.interrupt(); //CommandSender sits in Blocking IO.  Interrupt Required.
+                        logger.error("Disconnected From SWITCH." + shardName());
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -90,8 +195,13 @@ public class SwitchListener extends Thread{
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            // Sleep between half and all of the current backoff, then double it.
+            long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+            backoff = Math.min(maxBackoff, backoff * 2);
+            ServerMetrics.increment(metrics + "switch.reconnectAttempts");
+            logger.error("Retrying SWITCH connection" + shardName() + " in " + delay + "ms...");
             try {
-                Thread.sleep(5000);
+                Thread.sleep(delay);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -99,13 +209,29 @@ public class SwitchListener extends Thread{
 
     }
 
+    private String registration() {
+        return shards > 1 ? challenge + ":shard=" + shard + "/" + shards : challenge;
+    }
+
+    private String shardName() {
+        String name = lane.length() > 0 ? " " + lane.substring(1) : "";
+        return shards > 1 ? name + " (shard " + shard + "/" + shards + ")" : name;
+    }
+
     private class PingThread extends Thread {
 
-        private PrintWriter out;
+        private SwitchWriter out;
+        private Socket socket;
         private boolean stop;
+        private final LatencyHistogram rtt = ServerMetrics.histogram(metrics + "switch.rtt" + (shards > 1 ? "." + shard : ""));
+        private final long[] sentAt = new long[64];   // Send time of the last 64 pings, by seq
+        private long seq;                              // Last ping sent
+        private long lastPong;                         // Last ping answered
+        private boolean pongSeen;
 
-        public PingThread(PrintWriter out) {
+        public PingThread(SwitchWriter out, Socket socket) {
             this.out = out;
+            this.socket = socket;
             this.stop = false;
         }
 
@@ -113,15 +239,56 @@ public class SwitchListener extends Thread{
             this.stop=true;
         }
 
+        // Called by the reader with the metadata of a SERVER_PONG.  The round
+        // trip is timed against our own send time; the echoed timestamp only
+        // identifies the ping for a human reading a trace.
+        public synchronized void pong(String metaData) {
+            long n;
+            try {
+                int sep = metaData.indexOf(':');
+                n = Long.parseLong(sep < 0 ? metaData : metaData.substring(0, sep));
+            } catch (NumberFormatException e) {
+                ServerMetrics.increment(metrics + "switch.badPong");
+                return;
+            }
+            if (n <= lastPong || n > seq || seq - n >= sentAt.length) {
+                ServerMetrics.increment(metrics + "switch.latePong");
+                return;
+            }
+            rtt.record(System.nanoTime() - sentAt[(int) (n % sentAt.length)]);
+            lastPong = n;
+            pongSeen = true;
+        }
+
+        private synchronized long nextPing() {
+            seq++;
+            sentAt[(int) (seq % sentAt.length)] = System.nanoTime();
+            return seq;
+        }
+
+        private synchronized boolean linkDead() {
+            return pongSeen && seq - lastPong >= maxMissed;
+        }
+
         @Override
         public void run() {
-            currentThread().setName("PingThread");
             while (!stop) {
                 try {
-                    Thread.sleep(20 * 1000);
-                    out.println("SERVER_PING<<null");
+                    Thread.sleep(pingInterval);
+                    if (linkDead()) {
+                        ServerMetrics.increment(metrics + "switch.pongTimeout");
+                        logger.error("No SERVER_PONG for " + maxMissed + " pings, closing SWITCH connection." + shardName());
+                        socket.close();    // The reader fails and reconnects.
+                        stop = true;
+                        break;
+                    }
+                    long n = nextPing();
+                    out.writeCommand("SERVER_PING", n + ":" + Clock.now());
+                    out.flush();
                 } catch (InterruptedException e) {
                     stop = true;
+                } catch (IOException e) {
+                    stop = true;
                 }
             }
         }
@@ -0,0 +1,192 @@
+/*
+ * The SwitchWriter owns the outbound half of a switch connection.  Both the
+ * CommandSender and the PingThread write through it, so whole messages are
+ * never interleaved on the socket.  Depending on what was negotiated during
+ * registration it writes text lines or binary frames (see FrameCodec).
+ * Write errors are thrown as IOExceptions rather than swallowed.
+ * writeAll coalesces everything the CommandSender drained in one go: in
+ * binary mode consecutive runs of packs for one destination become a single
+ * BATCH frame, and in either mode the whole lot goes out with one flush.
+ * Writers are serialised with a ReentrantLock rather than synchronized, so a
+ * virtual thread blocked in a socket write does not pin its carrier thread
+ * (see ThreadMode).
+ */
+
+package cw_generic;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+public class SwitchWriter {
+    private final boolean binary;
+    private final DataOutputStream out;          // Carries both text lines and frames
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] digits = new byte[20];      // Scratch space for writeNumber
+    private int[] order = new int[64];               // writeAll: pack indexes of a batch, in order
+    private int[] nextInGroup = new int[64];         // writeAll: next pack for the same destination, or -1
+    private int[] groupBid = new int[64];            // writeAll, per group: destination,
+    private int[] groupFirst = new int[64];          // its first pack,
+    private int[] groupLast = new int[64];           // its last pack
+    private int[] groupSize = new int[64];           // and how many there are
+    private int[] slots = new int[256];              // writeAll: hash of destination to group + 1
+
+    public SwitchWriter(OutputStream out, boolean binary) throws IOException {
+        this.binary = binary;
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 16384));
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // Write a command pack.  Packs for a bot carry their bid and actionTime;
+    // packs for the switch itself carry neither.
+    public void write(CmdPack pack) throws IOException {
+        lock.lock();
+        try {
+            Command cmd = pack.cmd;
+            if (binary) {
+                FrameCodec.writeFrame(out, cmd.getCommandType(), destination(pack), pack.getActionTime(), pack.getPayload());
+            } else {
+                writeText(cmd.getCommandType());
+                writeText("<<");
+                if (pack.getBID() > 0) {
+                    writeNumber(pack.getBID());
+                    out.writeByte(':');
+                    writeNumber(pack.getActionTime());
+                    out.writeByte(':');
+                }
+                writeText(pack.getPayload());
+                out.writeByte('\n');
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Write a non-negative number without creating a String for it.
+    private void writeNumber(long n) throws IOException {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    // Text lines are UTF-8.  ASCII strings are copied byte by byte, which
+    // avoids the temporary buffers a Writer's encoder creates on every flush.
+    private void writeText(String s) throws IOException {
+        if (FrameCodec.isAscii(s)) {
+            out.writeBytes(s);
+        } else {
+            out.write(s.getBytes("UTF-8"));
+        }
+    }
+
+    // Write a list of packs, grouping them by destination.  Packs for one
+    // destination keep their order; destinations are written in the order
+    // they first appear.  Returns the number of frames (or lines) written.
+    // The grouping uses the scratch arrays below, which only grow, so a
+    // flush to many destinations allocates nothing.
+    public int writeAll(List<CmdPack> packs) throws IOException {
+        lock.lock();
+        try {
+            int n = packs.size();
+            if (!binary || n == 1) {
+                for (int i = 0; i < n; i++) {
+                    write(packs.get(i));
+                }
+                return n;
+            }
+            int groups = group(packs);
+            int at = 0;
+            for (int g = 0; g < groups; g++) {
+                if (groupSize[g] == 1) {
+                    write(packs.get(groupFirst[g]));
+                    continue;
+                }
+                int from = at;
+                for (int i = groupFirst[g]; i >= 0; i = nextInGroup[i]) {
+                    order[at++] = i;
+                }
+                FrameCodec.writeBatch(out, groupBid[g], packs, order, from, at);
+            }
+            return groups;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sort packs into groups by destination, numbered by first appearance,
+    // each a chain through nextInGroup.  Returns the number of groups.
+    private int group(List<CmdPack> packs) {
+        int n = packs.size();
+        if (order.length < n) {
+            int size = Integer.highestOneBit(n) << 1;
+            order = new int[size];
+            nextInGroup = new int[size];
+            groupBid = new int[size];
+            groupFirst = new int[size];
+            groupLast = new int[size];
+            groupSize = new int[size];
+            slots = new int[size << 1];
+        }
+        // Open addressing on the destination; a slot holds its group + 1.
+        int mask = (Integer.highestOneBit(n) << 2) - 1;
+        Arrays.fill(slots, 0, mask + 1, 0);
+        int groups = 0;
+        for (int i = 0; i < n; i++) {
+            int bid = destination(packs.get(i));
+            int h = (bid * 0x9E3779B9) >>> 16 & mask;
+            while (slots[h] != 0 && groupBid[slots[h] - 1] != bid) {
+                h = (h + 1) & mask;
+            }
+            int g = slots[h] - 1;
+            if (g < 0) {
+                g = groups++;
+                slots[h] = g + 1;
+                groupBid[g] = bid;
+                groupFirst[g] = i;
+                groupSize[g] = 0;
+            } else {
+                nextInGroup[groupLast[g]] = i;
+            }
+            groupLast[g] = i;
+            groupSize[g]++;
+            nextInGroup[i] = -1;
+        }
+        return groups;
+    }
+
+    private static int destination(CmdPack pack) {
+        return pack.getBID() > 0 ? pack.getBID() : FrameCodec.NO_BID;
+    }
+
+    // Write a command addressed to the switch itself.
+    public void writeCommand(String type, String payload) throws IOException {
+        lock.lock();
+        try {
+            if (binary) {
+                FrameCodec.writeFrame(out, type, FrameCodec.NO_BID, 0, payload);
+            } else {
+                writeText(type);
+                writeText("<<");
+                writeText(payload);
+                out.writeByte('\n');
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * TableRules are GameRules for card games round a table (Bullshit, for
+ * instance): any number of seats, each holding a hand the others must not
+ * see.  A bot is never sent the shared getLastMove() but its own getView(),
+ * so the ACTION_REQUEST written for one seat carries that seat's hand and
+ * only the public part of everybody else's.  A move may end the game for a
+ * seat other than the mover's (a bluff that goes unchallenged is only won on
+ * the next turn), so the terminal check asks getWinner() rather than
+ * isWin(mover).
+ */
+
+package cw_generic;
+
+public interface TableRules extends GameRules {
+
+    // The seat which has won, or -1 while the game goes on.
+    int getWinner();
+
+    // What seat is told with its next ACTION_REQUEST: its own hand and the
+    // public state of the table.
+    String getView(int seat);
+}
@@ -0,0 +1,83 @@
+/*
+ * ThreadMode decides what kind of thread runs the game server's blocking I/O
+ * paths: the SwitchListener readers, CommandSenders, PingThreads and the
+ * Thrift connection workers.  By default these are ordinary platform
+ * threads.  With -Dcw.threads=virtual they run on virtual threads instead, so
+ * thousands of idle web sessions cost a few kilobytes each rather than a
+ * whole thread stack, while the code stays plain blocking I/O.
+ * Virtual threads need Java 21.  They are looked up reflectively so the game
+ * server still builds and runs on older JVMs, where cw.threads=virtual logs a
+ * warning and falls back to platform threads.
+ */
+
+package cw_generic;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import org.apache.log4j.Logger;
+
+public class ThreadMode {
+    private static final Logger logger = Logger.getLogger(ThreadMode.class);
+    private static final Method ofVirtual;               // Thread.ofVirtual()
+    private static final Method unstarted;               // Thread.Builder.unstarted(Runnable)
+    private static final Method newPerTaskExecutor;      // Executors.newVirtualThreadPerTaskExecutor()
+    private static final boolean virtual;
+
+    static {
+        Method ov = null;
+        Method un = null;
+        Method ex = null;
+        try {
+            ov = Thread.class.getMethod("ofVirtual");
+            un = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            ex = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (Exception e) {
+            ov = null;
+        }
+        ofVirtual = ov;
+        unstarted = un;
+        newPerTaskExecutor = ex;
+        boolean wanted = ServerConfig.getString("threads", "platform").equals("virtual");
+        if (wanted && ov == null) {
+            logger.warn("cw.threads=virtual needs Java 21 or later; using platform threads.");
+        }
+        virtual = wanted && ov != null;
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    // Start r on a new thread of the configured kind and return that thread.
+    // Callers which want to interrupt the work must interrupt the returned
+    // thread, not r (r may itself be an unstarted Thread subclass).
+    public static Thread start(Runnable r, String name) {
+        Thread t = null;
+        if (virtual) {
+            try {
+                t = (Thread) unstarted.invoke(ofVirtual.invoke(null), r);
+            } catch (Exception e) {
+                logger.warn("Could not create a virtual thread, using a platform thread: " + e);
+            }
+        }
+        if (t == null) {
+            t = new Thread(r);
+        }
+        t.setName(name);
+        t.start();
+        return t;
+    }
+
+    // An executor which runs every task on its own thread: a virtual thread
+    // per task, or a cached pool of platform threads.
+    public static ExecutorService newPerTaskExecutor() {
+        if (virtual) {
+            try {
+                return (ExecutorService) newPerTaskExecutor.invoke(null);
+            } catch (Exception e) {
+                logger.warn("Could not create a virtual thread executor, using platform threads: " + e);
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+}
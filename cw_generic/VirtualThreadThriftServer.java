@@ -0,0 +1,93 @@
+/*
+ * The VirtualThreadThriftServer serves each Thrift connection on its own
+ * thread from ThreadMode.newPerTaskExecutor().  It works like
+ * TThreadPoolServer (accept, then loop processor.process() until the client
+ * goes away) but has no pool size to tune: with cw.threads=virtual every
+ * browser session gets a cheap virtual thread which simply blocks in read().
+ */
+
+package cw_generic;
+
+import java.util.concurrent.*;
+import org.apache.log4j.Logger;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.TProcessorFactory;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TServerTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TTransportFactory;
+
+public class VirtualThreadThriftServer extends TServer {
+    private static final Logger logger = Logger.getLogger(VirtualThreadThriftServer.class);
+    private final ExecutorService executor = ThreadMode.newPerTaskExecutor();
+    private volatile boolean stopped;
+
+    public VirtualThreadThriftServer(TProcessor processor, TServerTransport serverTransport, TProtocolFactory protocolFactory) {
+        super(new TProcessorFactory(processor), serverTransport, new TTransportFactory(), new TTransportFactory(),
+                protocolFactory, protocolFactory);
+    }
+
+    @Override
+    public void serve() {
+        try {
+            serverTransport_.listen();
+        } catch (TTransportException e) {
+            logger.error("Error occurred during listening.", e);
+            return;
+        }
+        while (!stopped) {
+            try {
+                final TTransport client = serverTransport_.accept();
+                ServerMetrics.increment("thrift.connections");
+                executor.execute(new Runnable() {
+                    public void run() {
+                        handle(client);
+                    }
+                });
+            } catch (TTransportException e) {
+                if (!stopped) {
+                    logger.warn("Transport error occurred during acceptance of message.", e);
+                }
+            }
+        }
+        executor.shutdown();
+    }
+
+    private void handle(TTransport client) {
+        TTransport in = null;
+        TTransport out = null;
+        try {
+            TProcessor processor = processorFactory_.getProcessor(client);
+            in = inputTransportFactory_.getTransport(client);
+            out = outputTransportFactory_.getTransport(client);
+            TProtocol inProtocol = inputProtocolFactory_.getProtocol(in);
+            TProtocol outProtocol = outputProtocolFactory_.getProtocol(out);
+            while (processor.process(inProtocol, outProtocol)) {
+            }
+        } catch (TTransportException e) {
+            // Client went away.
+        } catch (TException e) {
+            logger.error("Thrift error occurred during processing of message.", e);
+        } catch (Exception e) {
+            logger.error("Error occurred during processing of message.", e);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        serverTransport_.interrupt();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * A WaitStrategy decides what a RingBuffer consumer does while its buffer is
+ * empty.  The strategies trade CPU for handoff latency:
+ *   busyspin - never leaves the core; lowest latency, burns a full CPU.
+ *   yield    - spins briefly then Thread.yield(); low latency, high CPU.
+ *   sleep    - spins, yields, then parks for short periods; moderate CPU.
+ *   blocking - parks on a lock/condition until a producer signals; lowest
+ *              CPU, same wake-up cost as a LinkedBlockingQueue.
+ * Producers call signal() after every publish.  Only the blocking strategy
+ * does any work there, and only when a consumer is actually waiting.
+ */
+
+package cw_generic;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+public abstract class WaitStrategy {
+
+    // Wait until the buffer has data, the deadline (System.nanoTime) passes
+    // or the thread is interrupted.  May return early; callers re-check.
+    public abstract void waitFor(RingBuffer<?> buffer, long deadline) throws InterruptedException;
+
+    public void signal() {
+    }
+
+    public static WaitStrategy forName(String name) {
+        if (name.equals("busyspin")) {
+            return new BusySpin();
+        } else if (name.equals("yield")) {
+            return new Yielding();
+        } else if (name.equals("sleep")) {
+            return new Sleeping();
+        }
+        return new Blocking();
+    }
+
+    private static void checkInterrupt() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    public static class BusySpin extends WaitStrategy {
+        @Override
+        public void waitFor(RingBuffer<?> buffer, long deadline) throws InterruptedException {
+            while (!buffer.isReady() && System.nanoTime() < deadline) {
+                checkInterrupt();
+            }
+        }
+    }
+
+    public static class Yielding extends WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+
+        @Override
+        public void waitFor(RingBuffer<?> buffer, long deadline) throws InterruptedException {
+            int counter = SPIN_TRIES;
+            while (!buffer.isReady() && System.nanoTime() < deadline) {
+                checkInterrupt();
+                if (counter > 0) {
+                    counter--;
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+
+    public static class Sleeping extends WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 100;
+        private static final long PARK_NANOS = 100000;   // 0.1 ms
+
+        @Override
+        public void waitFor(RingBuffer<?> buffer, long deadline) throws InterruptedException {
+            int counter = SPIN_TRIES + YIELD_TRIES;
+            while (!buffer.isReady() && System.nanoTime() < deadline) {
+                checkInterrupt();
+                if (counter > YIELD_TRIES) {
+                    counter--;
+                } else if (counter > 0) {
+                    counter--;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+        }
+    }
+
+    public static class Blocking extends WaitStrategy {
+        private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+        private final Lock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private volatile int waiters;
+
+        @Override
+        public void waitFor(RingBuffer<?> buffer, long deadline) throws InterruptedException {
+            if (buffer.isReady()) {
+                return;
+            }
+            lock.lock();
+            try {
+                waiters++;
+                // Re-check after announcing ourselves so a publish racing with
+                // the announcement is never missed.  The bounded park is a
+                // safety net only.
+                while (!buffer.isReady()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    notEmpty.awaitNanos(Math.min(remaining, MAX_PARK));
+                }
+            } finally {
+                waiters--;
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signal() {
+            if (waiters > 0) {
+                lock.lock();
+                try {
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * ZobristKeys holds one random 64 bit key per square and piece.  A position's
+ * key is the XOR of the keys of its pieces, so a move updates it with one or
+ * two XORs instead of rehashing the board, and equal positions reached by
+ * different move orders get equal keys.  The keys come from a fixed seed:
+ * every GameManager, house engine and PositionCache in the process (and in
+ * later runs) agrees on them.  Tables are shared per board size.
+ */
+
+package cw_generic;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class ZobristKeys {
+    private static final ConcurrentMap<Long, ZobristKeys> tables = new ConcurrentHashMap<Long, ZobristKeys>();
+
+    private final int pieces;
+    private final long[] keys;
+
+    private ZobristKeys(int squares, int pieces) {
+        this.pieces = pieces;
+        this.keys = new long[squares * pieces];
+        Random random = new Random(0x5eedL * 31 + squares * 131L + pieces);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    // The keys for boards of squares squares with pieces kinds of piece.
+    public static ZobristKeys of(int squares, int pieces) {
+        Long id = (long) squares << 32 | pieces;
+        ZobristKeys z = tables.get(id);
+        if (z == null) {
+            tables.putIfAbsent(id, new ZobristKeys(squares, pieces));
+            z = tables.get(id);
+        }
+        return z;
+    }
+
+    // Key of piece (0 .. pieces-1) on square.
+    public long key(int square, int piece) {
+        return keys[square * pieces + piece];
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * The AllocationCheck measures how many bytes the game server allocates on
+ * its move hot path: from a decoded ACTION_REPLY, through
+ * GameServer.process(), the sendQueue and a real CommandSender's drain and
+ * writeAll, to the encoded ACTION_REQUEST for the opponent, including the
+ * sender's bookkeeping: the OutboundJournal records each written pack and
+ * releases the previous one when the bot answers.  Two bots play games
+ * against each other in-process; every reply which produces exactly one
+ * ACTION_REQUEST (the game goes on) is a move sample.  The packs a finished
+ * game leaves (procedure call and reports) wait for the next CHALLENGE's
+ * GAME_INITIALIZEs, and that flush to several destinations, with a BATCH
+ * frame per bot, is a flush sample; only the CommandSender is measured for
+ * it.  Everything else the bots do is not counted.  Allocation is read from
+ * the JVM's per-thread allocation counter, so the check needs a HotSpot based
+ * JVM.
+ *
+ * The sendQueue is a RingBuffer (cw.pipeline=ring) because a
+ * LinkedBlockingQueue allocates a node for every element.  With
+ * -Dcw.sendQueue.scheduling=fair it is a FairSendQueue instead, which must
+ * be allocation free as well.
+ *
+ * The check exits with status 1 if more than one sample of either kind in a
+ * thousand allocates over maxBytes; the odd outlier comes from the JVM itself (late
+ * JIT compilation, for instance), not from the code under test.
+ * The Command and CmdPack envelopes are pooled, so the whole path is
+ * expected to be allocation free and the default limit is 0.  Example:
+ *   java cw_generic.sim.AllocationCheck games=5000 warmup=1000 framing=binary
+ *   java -Dcw.sendQueue.scheduling=fair cw_generic.sim.AllocationCheck
+ */
+
+package cw_generic.sim;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import cw_generic.CmdPack;
+import cw_generic.Command;
+import cw_generic.CommandSender;
+import cw_generic.GameManager;
+import cw_generic.GameServer;
+import cw_generic.OutboundJournal;
+import cw_generic.SwitchWriter;
+
+public class AllocationCheck {
+
+    private final int games;
+    private final int warmup;
+    private final long maxBytes;
+    private final boolean binary;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final Random random = new Random(7);
+    private final Command[][] replies = new Command[3][8];   // Prebuilt ACTION_REPLY per bid and column
+    private final int[][] boards = new int[3][7];
+    private final ArrayDeque<Command> inbox = new ArrayDeque<Command>();     // Commands the bots send next
+    private GameServer server;
+    private CommandSender sender;
+    private OutboundJournal journal;
+    private boolean protocolTest;          // The server, not the other bot, made the last move
+    private final Set<CmdPack> seen = Collections.newSetFromMap(new IdentityHashMap<CmdPack, Boolean>());  // Queued packs the bots have seen
+    private long id;                       // This thread, for the allocation counter
+    private long overhead;                 // Bytes the counter itself allocates per reading
+    private final long[] flushes = new long[3];    // Flush samples: count, bytes, over the limit
+
+    public static void main(String args[]) throws Exception {
+        Properties p = Args.parse(args);
+        System.exit(new AllocationCheck(p).run() ? 0 : 1);
+    }
+
+    public AllocationCheck(Properties p) {
+        this.games = Integer.parseInt(p.getProperty("games", "5000"));
+        this.warmup = Integer.parseInt(p.getProperty("warmup", "1000"));
+        this.maxBytes = Long.parseLong(p.getProperty("maxBytes", "0"));
+        this.binary = p.getProperty("framing", "binary").equals("binary");
+    }
+
+    public boolean run() throws Exception {
+        System.setProperty("cw.pipeline", "ring");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        id = Thread.currentThread().getId();
+        overhead = threads.getThreadAllocatedBytes(id);
+        overhead = threads.getThreadAllocatedBytes(id) - overhead;
+        GameManager.setRandom(new Random(7));
+        GameManager.resetGameIds();
+        server = new GameServer(new Random(7));
+        journal = server.journals[0];
+        sender = new CommandSender(new SwitchWriter(new NullOutputStream(), binary), server.sendQueue, server.outQueue, journal, "");
+        for (int bid = 1; bid <= 2; bid++) {
+            for (int col = 1; col <= 7; col++) {
+                Command c = new Command("ACTION_REPLY", bid + ":0:" + col);
+                c.setBID(bid);
+                replies[bid][col] = c;
+            }
+        }
+
+        // Log in; each bot plays its protocol test first.
+        protocolTest = true;
+        server.process(new Command("LOGIN_INFORM", "1:mode=1"));
+        server.process(new Command("LOGIN_INFORM", "2:mode=1"));
+        routeAll(false);
+        while (!inbox.isEmpty()) {
+            Command cmd = inbox.poll();
+            journal.acknowledge(cmd.getBID());
+            server.process(cmd);
+            routeAll(false);
+        }
+        protocolTest = false;
+
+        long[] moves = new long[3];
+        for (int game = 0; game < warmup + games; game++) {
+            boolean measured = game >= warmup;
+            server.process(new Command("CHALLENGE"));
+            routeAll(measured);
+            while (!inbox.isEmpty()) {
+                Command cmd = inbox.poll();
+                long before = threads.getThreadAllocatedBytes(id);
+                journal.acknowledge(cmd.getBID());
+                server.process(cmd);
+                CmdPack pack = server.sendQueue.peek();
+                if (cmd.getCommandType().equals("ACTION_REPLY") && seen.isEmpty() && server.sendQueue.size() == 1
+                        && pack.cmd.getCommandType().equals("ACTION_REQUEST")) {
+                    Command answer = answer(pack);
+                    sender.sendBatch();
+                    if (measured) {
+                        sample(moves, threads.getThreadAllocatedBytes(id) - before - overhead);
+                    }
+                    inbox.add(answer);
+                } else {
+                    // Not a plain move.  Once the game is over nobody has to
+                    // answer, and its packs go out with the next CHALLENGE;
+                    // otherwise (game start) route without measuring.
+                    see();
+                    if (!inbox.isEmpty() || protocolTest) {
+                        routeAll(false);
+                    }
+                }
+            }
+        }
+        System.out.println(String.format("framing=%s games=%d samples=%d bytes/move=%.3f flushes=%d bytes/flush=%.3f limit=%d overLimit=%d",
+                binary ? "binary" : "text", games, moves[0], perSample(moves), flushes[0], perSample(flushes),
+                maxBytes, moves[2] + flushes[2]));
+        boolean ok = moves[0] > 0 && flushes[0] > 0 && moves[2] * 1000 <= moves[0] && flushes[2] * 1000 <= flushes[0];
+        System.out.println(ok ? "PASS" : "FAIL: move hot path allocates more than " + maxBytes + " bytes");
+        return ok;
+    }
+
+    private void sample(long[] kind, long used) {
+        kind[0]++;
+        kind[1] += used;
+        if (used > maxBytes) {
+            kind[2]++;
+        }
+    }
+
+    private static double perSample(long[] kind) {
+        return kind[0] == 0 ? 0.0 : (double) kind[1] / kind[0];
+    }
+
+    // Let the bots see everything queued, then send it.  A flush to more than
+    // one destination is a flush sample if measured.
+    private void routeAll(boolean measured) throws InterruptedException {
+        if (server.sendQueue.isEmpty()) {
+            return;
+        }
+        boolean several = see();
+        long before = threads.getThreadAllocatedBytes(id);
+        sender.sendBatch();
+        long used = threads.getThreadAllocatedBytes(id) - before - overhead;
+        if (measured && several) {
+            sample(flushes, used);
+        }
+        seen.clear();
+    }
+
+    // Show the bots the packs queued since they last looked, without taking
+    // them off the queue (a fair sendQueue does not iterate in arrival
+    // order, so what was seen is remembered pack by pack).  Returns true if
+    // the queue holds packs for more than one destination.
+    private boolean see() {
+        boolean first = true;
+        int bid = 0;
+        boolean several = false;
+        for (CmdPack pack : server.sendQueue) {
+            if (first) {
+                bid = pack.getBID();
+                first = false;
+            } else if (pack.getBID() != bid) {
+                several = true;
+            }
+            if (seen.add(pack)) {
+                route(pack);
+            }
+        }
+        return several;
+    }
+
+    // What a bot does with one pack: GAME_INITIALIZE is echoed and an
+    // ACTION_REQUEST answered, both via the inbox.
+    private void route(CmdPack pack) {
+        String type = pack.cmd.getCommandType();
+        if (type.equals("GAME_INITIALIZE")) {
+            Arrays.fill(board(pack.getBID()), 0);
+            Command echo = new Command("GAME_INITIALIZE", pack.getBID() + ":" + pack.getPayload());
+            echo.setBID(pack.getBID());
+            inbox.add(echo);
+        } else if (type.equals("ACTION_REQUEST")) {
+            inbox.add(answer(pack));
+        }
+    }
+
+    // Column heights as seen by bot bid.  In a protocol test each bot plays
+    // the server on its own board; in a game both bots share one.
+    private int[] board(int bid) {
+        return protocolTest ? boards[bid] : boards[0];
+    }
+
+    // Pick a random legal column.  The last move is only recorded when the
+    // server made it; a bot's own moves are recorded as they are chosen.
+    private Command answer(CmdPack request) {
+        int[] height = board(request.getBID());
+        String last = request.getPayload();
+        if (protocolTest && last.length() == 1 && last.charAt(0) >= '1' && last.charAt(0) <= '7') {
+            height[last.charAt(0) - '1']++;
+        }
+        int col;
+        do {
+            col = random.nextInt(7);
+        } while (height[col] >= 6);
+        height[col]++;
+        return replies[request.getBID()][col + 1];
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
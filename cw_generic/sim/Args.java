@@ -0,0 +1,23 @@
+/*
+ * Args reads the command line of the simulation tools: every argument of the
+ * form key=value becomes a property, anything else is ignored.  Defaults are
+ * left to the tool (p.getProperty(key, default)).
+ */
+
+package cw_generic.sim;
+
+import java.util.Properties;
+
+public class Args {
+
+    public static Properties parse(String args[]) {
+        Properties p = new Properties();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                p.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        return p;
+    }
+}
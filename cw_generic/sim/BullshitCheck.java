@@ -0,0 +1,147 @@
+/*
+ * The BullshitCheck drives an in-process Bullshit GameServer with games of
+ * several bots: bots log in and pass their protocol test, then every
+ * CHALLENGE seats them in groups of cw.bullshit.players and each
+ * ACTION_REQUEST is answered at once.  A bot plays the cards of the rank it
+ * must claim if it has any and bluffs with a random card otherwise, and
+ * calls bullshit when its own hand proves the claim false or, now and then,
+ * at random.  It reports games and turns per minute and checks every view a
+ * bot is sent: exactly one hand (its own), whose size matches the public
+ * count, and all cards accounted for.  Any refused move or bad view fails
+ * the check.  Example:
+ *   java cw_generic.sim.BullshitCheck bots=1000 players=5 challenges=20
+ */
+
+package cw_generic.sim;
+
+import java.util.*;
+
+import BullshitServer.BullshitChallenge;
+import BullshitServer.BullshitRules;
+import cw_generic.CmdPack;
+import cw_generic.Command;
+import cw_generic.GameManager;
+import cw_generic.GameServer;
+
+public class BullshitCheck {
+
+    private final int botCount;
+    private final int challenges;
+    private final double callRate;
+    private final Random random = new Random(7);
+    private final ArrayDeque<Command> inbox = new ArrayDeque<Command>();
+    private GameServer server;
+    private long games;
+    private long turns;
+    private long calls;
+    private long badViews;
+    private long refused;
+
+    public static void main(String args[]) throws Exception {
+        Properties p = Args.parse(args);
+        System.setProperty("cw.bullshit.players", p.getProperty("players", "4"));
+        System.exit(new BullshitCheck(p).run() ? 0 : 1);
+    }
+
+    public BullshitCheck(Properties p) {
+        this.botCount = Integer.parseInt(p.getProperty("bots", "1000"));
+        this.challenges = Integer.parseInt(p.getProperty("challenges", "20"));
+        this.callRate = Double.parseDouble(p.getProperty("callRate", "0.1"));
+    }
+
+    public boolean run() throws Exception {
+        GameManager.setRandom(new Random(7));
+        GameManager.resetGameIds();
+        BullshitChallenge challenge = new BullshitChallenge();
+        server = new GameServer(new Random(7), challenge);
+        for (int bid = 1; bid <= botCount; bid++) {
+            server.process(new Command("LOGIN_INFORM", bid + ":mode=1"));
+        }
+        drain();
+
+        long start = System.nanoTime();
+        for (int c = 0; c < challenges; c++) {
+            server.process(new Command("CHALLENGE"));
+            drain();
+        }
+        double minutes = (System.nanoTime() - start) / 60e9;
+        System.out.println(String.format("bots=%d players=%d games=%d turns=%d calls=%d games/min=%.0f turns/min=%.0f badViews=%d refused=%d",
+                botCount, challenge.getPlayers(), games, turns, calls, games / minutes, turns / minutes, badViews, refused));
+        boolean ok = games > 0 && badViews == 0 && refused == 0;
+        System.out.println(ok ? "PASS" : "FAIL");
+        return ok;
+    }
+
+    private void drain() {
+        CmdPack pack;
+        while (true) {
+            while ((pack = server.sendQueue.poll()) != null) {
+                route(pack);
+            }
+            if (inbox.isEmpty()) {
+                return;
+            }
+            server.process(inbox.poll());
+        }
+    }
+
+    private void route(CmdPack pack) {
+        String type = pack.cmd.getCommandType();
+        int bid = pack.getBID();
+        if (type.equals("GAME_INITIALIZE")) {
+            reply("GAME_INITIALIZE", bid, pack.getPayload());
+        } else if (type.equals("ACTION_REQUEST")) {
+            reply("ACTION_REPLY", bid, "0:" + move(pack.getPayload()));
+        } else if (type.equals("EXECUTE_PROCEDURE")) {
+            games++;
+        } else if (type.equals("DISCONNECT_BOT_REMOTE")) {
+            refused++;
+        }
+        pack.release();
+    }
+
+    private void reply(String type, int bid, String text) {
+        Command cmd = new Command(type, bid + ":" + text);
+        cmd.setBID(bid);
+        inbox.add(cmd);
+    }
+
+    // Check a view and choose a move from it.
+    private String move(String view) {
+        String[] f = view.split(";");
+        if (f.length != 7) {
+            badViews++;
+            return "P1";
+        }
+        turns++;
+        String[] counts = f[6].split(",");
+        int seat = Integer.parseInt(f[0]);
+        int rank = Integer.parseInt(f[1]);
+        long hand = Long.parseUnsignedLong(f[2], 16);
+        int lastSeat = Integer.parseInt(f[3]);
+        int lastCount = Integer.parseInt(f[4]);
+        int held = 0;
+        for (String n : counts) {
+            held += Integer.parseInt(n);
+        }
+        if (seat >= counts.length || Long.bitCount(hand) != Integer.parseInt(counts[seat])
+                || held + Integer.parseInt(f[5]) != BullshitRules.CARDS) {
+            badViews++;
+        }
+        int claimed = (rank + BullshitRules.RANKS - 1) % BullshitRules.RANKS;
+        long mine = hand & 0xFL << (4 * claimed);
+        boolean call = lastSeat >= 0 && (lastCount + Long.bitCount(mine) > 4 || random.nextDouble() < callRate);
+        if (call) {
+            calls++;
+        }
+        long cards = hand & 0xFL << (4 * rank);
+        if (cards == 0) {
+            cards = hand;
+            for (int skip = random.nextInt(Long.bitCount(hand)); skip > 0; skip--) {
+                cards &= cards - 1;
+            }
+            cards = Long.lowestOneBit(cards);
+        }
+        return (call ? "B" : "P") + Long.toHexString(cards);
+    }
+}
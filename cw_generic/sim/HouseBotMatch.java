@@ -0,0 +1,88 @@
+/*
+ * The HouseBotMatch plays the connect four house engine against random
+ * moves, or two engine strengths against each other, through the real
+ * ConnectFourRules, and reports the results together with how long a move
+ * took: the search is told to stop marginMs (default 3, as cw.house.marginMs)
+ * before budgetMs, so apart from the odd pause of the JVM the slowest move
+ * stays within budgetMs; over counts the moves which did not.  The engines take turns to
+ * start.  cache=false leaves out the shared cache of search results (on by
+ * default, so later games reuse what earlier ones searched).  Example:
+ *   java cw_generic.sim.HouseBotMatch games=200 depth=20 budgetMs=20 opponent=random
+ *   java cw_generic.sim.HouseBotMatch games=50 depth=20 opponent=4
+ */
+
+package cw_generic.sim;
+
+import java.util.*;
+
+import connectFourServer.ConnectFourEngine;
+import connectFourServer.ConnectFourRules;
+import cw_generic.BoardGeometry;
+import cw_generic.PositionCache;
+
+public class HouseBotMatch {
+
+    public static void main(String args[]) {
+        Properties p = Args.parse(args);
+        int games = Integer.parseInt(p.getProperty("games", "200"));
+        int depth = Integer.parseInt(p.getProperty("depth", "20"));
+        long budget = Long.parseLong(p.getProperty("budgetMs", "20")) * 1000000L;
+        long margin = Long.parseLong(p.getProperty("marginMs", "3")) * 1000000L;
+        String opponent = p.getProperty("opponent", "random");
+        BoardGeometry geometry = BoardGeometry.fromConfig();
+        PositionCache results = Boolean.parseBoolean(p.getProperty("cache", "true")) ? new PositionCache(1 << 18, 64) : null;
+        ConnectFourEngine engine = new ConnectFourEngine(geometry, depth, 20, results);
+        ConnectFourEngine other = opponent.equals("random") ? null
+                : new ConnectFourEngine(geometry, Integer.parseInt(opponent), 20, null);
+        Random random = new Random(7);
+        ConnectFourRules rules = new ConnectFourRules(geometry);
+        int wins = 0;
+        int losses = 0;
+        long moves = 0;
+        long total = 0;
+        long slowest = 0;
+        int over = 0;
+        for (int game = 0; game < games; game++) {
+            rules.init(random);
+            int house = game % 2;
+            for (int seat = 0; ; seat = 1 - seat) {
+                if (seat == house) {
+                    long start = System.nanoTime();
+                    String move = engine.chooseMove(rules.getRecord(), start + budget - margin);
+                    long took = System.nanoTime() - start;
+                    total += took;
+                    slowest = Math.max(slowest, took);
+                    if (took > budget) {
+                        over++;
+                    }
+                    moves++;
+                    if (rules.apply(seat, move, 0) != null) {
+                        System.out.println("FAIL: illegal house move " + move + " after " + rules.getRecord());
+                        System.exit(1);
+                    }
+                } else if (other == null) {
+                    rules.randomMove(seat, random);
+                } else {
+                    rules.apply(seat, other.chooseMove(rules.getRecord(), System.nanoTime() + budget - margin), 0);
+                }
+                if (rules.isWin(seat)) {
+                    if (seat == house) {
+                        wins++;
+                    } else {
+                        losses++;
+                    }
+                    break;
+                }
+                if (rules.isDraw()) {
+                    break;
+                }
+            }
+        }
+        System.out.println(String.format("games=%d depth=%d opponent=%s won=%d lost=%d drawn=%d avgMs=%.2f maxMs=%.2f over=%d",
+                games, depth, opponent, wins, losses, games - wins - losses, total / 1e6 / moves, slowest / 1e6, over));
+        if (results != null) {
+            System.out.println(String.format("cache entries=%d hits=%d misses=%d evictions=%d",
+                    results.size(), results.getHits(), results.getMisses(), results.getEvictions()));
+        }
+    }
+}
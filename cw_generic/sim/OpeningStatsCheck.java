@@ -0,0 +1,91 @@
+/*
+ * The OpeningStatsCheck plays random connect four games through a
+ * GameManager, records each finished game in an OpeningStats tree and
+ * tallies the same results itself, by position key and from the side of the
+ * bot whose turn it was.  It then asks the tree, as the web interface does,
+ * for the moves from positions along a sample of the games and fails if any
+ * count differs from the tally.  Unless cw.openings.size says otherwise the
+ * tree is made big enough to hold every position, so nothing is evicted.
+ * It reports how many games per second record() takes.  Example:
+ *   java cw_generic.sim.OpeningStatsCheck games=100000 sample=500
+ */
+
+package cw_generic.sim;
+
+import java.util.*;
+
+import connectFourServer.ConnectFourChallenge;
+import connectFourServer.ConnectFourRules;
+import cw_generic.BoardGeometry;
+import cw_generic.GameManager;
+import cw_generic.OpeningStats;
+import cw_generic.ServerConfig;
+
+public class OpeningStatsCheck {
+
+    public static void main(String args[]) {
+        Properties p = Args.parse(args);
+        int games = Integer.parseInt(p.getProperty("games", "100000"));
+        int sample = Integer.parseInt(p.getProperty("sample", "500"));
+        int depth = ServerConfig.getInt("openings.depth", 16);
+        if (System.getProperty("cw.openings.size") == null) {
+            System.setProperty("cw.openings.size", Integer.toString(games * depth));
+        }
+        GameManager.setRandom(new Random(11));
+        BoardGeometry geometry = BoardGeometry.fromConfig();
+        OpeningStats stats = new OpeningStats(new ConnectFourChallenge());
+        Map<Long, int[]> tally = new HashMap<Long, int[]>();
+        List<String> records = new ArrayList<String>();
+        long recording = 0;
+        for (int game = 0; game < games; game++) {
+            GameManager g = new GameManager(1, 2, new ConnectFourRules(geometry));
+            List<Integer> movers = new ArrayList<Integer>();
+            do {
+                movers.add(g.getTurn());
+                g.makeRandomMove();
+            } while (!(g.isDraw() | g.hasWon()));
+            long start = System.nanoTime();
+            stats.record(g);
+            recording += System.nanoTime() - start;
+            for (int i = 1; i <= Math.min(depth, movers.size()); i++) {
+                int[] t = tally.get(g.getPositionKey(i));
+                if (t == null) {
+                    tally.put(g.getPositionKey(i), t = new int[3]);
+                }
+                t[g.getVictor() == 0 ? 1 : g.getVictor() == movers.get(i - 1) ? 0 : 2]++;
+            }
+            if (game < sample) {
+                records.add(g.getRecord());
+            }
+        }
+        int checked = 0;
+        for (String record : records) {
+            String[] moves = record.split(",");
+            ConnectFourRules rules = new ConnectFourRules(geometry);
+            rules.init(null);
+            for (int i = 0; i < Math.min(depth, moves.length); i++) {
+                String prefix = i == 0 ? "" : record.substring(0, prefixLength(moves, i) - 1);
+                rules.apply(i % 2, moves[i], 0);
+                int[] t = tally.get(rules.getPositionKey());
+                String expected = moves[i] + ":" + t[0] + ":" + t[1] + ":" + t[2];
+                if (!(";" + stats.describe(prefix) + ";").contains(";" + expected + ";")) {
+                    System.out.println("FAIL: after \"" + prefix + "\" expected " + expected + " in " + stats.describe(prefix));
+                    System.exit(1);
+                }
+                checked++;
+            }
+        }
+        System.out.println(String.format("games=%d positions=%d recordedPerSec=%.0f checked=%d first moves: %s",
+                games, stats.size(), games / (recording / 1e9), checked, stats.describe("")));
+        System.out.println("PASS");
+    }
+
+    // Length of the record up to move i, the comma before it included.
+    private static int prefixLength(String[] moves, int i) {
+        int n = 0;
+        for (int j = 0; j < i; j++) {
+            n += moves[j].length() + 1;
+        }
+        return n;
+    }
+}
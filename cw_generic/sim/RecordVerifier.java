@@ -0,0 +1,235 @@
+/*
+ * The RecordVerifier re-adjudicates archived games offline, e.g. after a
+ * rule fix or to find corrupted logs.  It streams a file with one game per
+ * line, replays each game move by move through the challenge's GameRules
+ * and prints every game which does not stand up: an illegal move, moves
+ * after the game was over, a record which stops before the game is over or
+ * a logged victor the rules disagree with.  A line is either the game's
+ * logGame() procedure call, as sent to the switch,
+ *   insert_gamedata:victor,red,black,'4,3,4,5,...',errorCode,errorBID,'errorText',rated
+ * (the "insert_gamedata:" prefix may be left out), or just the record from
+ * getGameData(), which is checked without a victor.  Empty lines and lines
+ * starting with '#' are skipped.  A discrepancy is printed as
+ *   lineNumber: reason: line
+ * and the totals go to stderr.
+ *
+ * Lines are read in batches of batch lines on the calling thread; each
+ * batch is split down to 256 lines by a fork-join task on a pool of threads
+ * workers (default all cores), each worker with its own GameRules.  At most
+ * two batches per worker are in flight, so memory stays bounded however
+ * long the file, and discrepancies come out in file order.  Only turn based
+ * games with public moves can be replayed from their record (connect four).
+ * Example:
+ *   java cw_generic.sim.RecordVerifier file=games.log threads=8
+ *   java cw_generic.sim.RecordVerifier file=- challenge=connectFourServer.ConnectFourChallenge < games.log
+ */
+
+package cw_generic.sim;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cw_generic.ChallengeType;
+import cw_generic.GameRules;
+import cw_generic.SimultaneousRules;
+import cw_generic.TableRules;
+
+public class RecordVerifier {
+    private static final String PROCEDURE = "insert_gamedata:";
+    private static final int LEAF = 256;        // Lines verified by one task without splitting
+
+    private final ChallengeType challenge;
+    private final int players;
+    private final ThreadLocal<GameRules> rules = new ThreadLocal<GameRules>() {
+        @Override
+        protected GameRules initialValue() {
+            return challenge.newRules(players);
+        }
+    };
+
+    public RecordVerifier(ChallengeType challenge) {
+        this.challenge = challenge;
+        this.players = challenge.getPlayers();
+        GameRules sample = challenge.newRules(players);
+        if (sample instanceof SimultaneousRules || sample instanceof TableRules) {
+            throw new IllegalArgumentException(challenge.getName() + " games cannot be replayed from their record");
+        }
+    }
+
+    public static void main(String args[]) throws Exception {
+        Properties p = Args.parse(args);
+        String file = p.getProperty("file", "-");
+        int batch = Integer.parseInt(p.getProperty("batch", "16384"));
+        int threads = Integer.parseInt(p.getProperty("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        String name = p.getProperty("challenge", "connectFourServer.ConnectFourChallenge");
+        ChallengeType challenge = (ChallengeType) Class.forName(name).getDeclaredConstructor().newInstance();
+
+        BufferedReader in = new BufferedReader(file.equals("-") ? new InputStreamReader(System.in)
+                : new InputStreamReader(new FileInputStream(file)), 1 << 16);
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        long start = System.nanoTime();
+        long[] totals = new RecordVerifier(challenge).verify(in, out, batch, new ForkJoinPool(threads));
+        out.flush();
+        in.close();
+        double minutes = (System.nanoTime() - start) / 6e10;
+        System.err.println(String.format("games=%d discrepancies=%d draws=%d skipped=%d threads=%d games/min=%.0f",
+                totals[0], totals[1], totals[2], totals[3], threads, totals[0] / minutes));
+        System.exit(totals[1] == 0 ? 0 : 1);
+    }
+
+    // Verify every line of in on pool and print the discrepancies to out.
+    // Returns the games checked, discrepancies, draws and skipped lines.
+    public long[] verify(BufferedReader in, PrintStream out, int batch, ForkJoinPool pool) throws IOException {
+        ArrayDeque<Batch> inFlight = new ArrayDeque<Batch>();
+        long[] totals = new long[4];
+        long lineNumber = 1;
+        while (true) {
+            String[] lines = new String[batch];
+            int n = 0;
+            String line;
+            while (n < batch && (line = in.readLine()) != null) {
+                lines[n++] = line;
+            }
+            if (n > 0) {
+                Batch b = new Batch(lines, lineNumber, 0, n, new String[n]);
+                lineNumber += n;
+                pool.execute(b);
+                inFlight.add(b);
+            }
+            // Keep the pool busy but the backlog bounded; report in order.
+            while (!inFlight.isEmpty() && (n < batch || inFlight.size() > 2 * pool.getParallelism())) {
+                Batch done = inFlight.remove();
+                done.join();
+                done.report(out, totals);
+            }
+            if (n < batch) {
+                return totals;
+            }
+        }
+    }
+
+    // Why the game on line does not stand up, or null if it does.  counts[0]
+    // is incremented for a game checked, counts[1] for a draw and counts[2]
+    // for a line skipped.
+    String check(String line, int[] counts) {
+        int from = line.startsWith(PROCEDURE) ? PROCEDURE.length() : 0;
+        if (from == line.length() || line.charAt(from) == '#') {
+            counts[2]++;
+            return null;
+        }
+        counts[0]++;
+        int victor = 0;
+        int[] seats = null;
+        int begin = from;
+        int end = line.length();
+        int quote = line.indexOf('\'', from);
+        if (quote >= 0) {
+            // victor,seat0,...,seatN-1,'record',...
+            String[] fields = line.substring(from, quote).split(",");
+            if (fields.length != players + 1 || !line.startsWith(",", quote - 1)) {
+                return "expected " + players + " seats";
+            }
+            seats = new int[players];
+            try {
+                victor = Integer.parseInt(fields[0].trim());
+                for (int i = 0; i < players; i++) {
+                    seats[i] = Integer.parseInt(fields[i + 1].trim());
+                }
+            } catch (NumberFormatException e) {
+                return "unreadable header";
+            }
+            begin = quote + 1;
+            end = line.indexOf('\'', begin);
+            if (end < 0) {
+                return "unterminated record";
+            }
+        }
+        GameRules game = rules.get();
+        game.init(null);        // Rules replayed from a record never deal or shuffle
+        int winner = -1;
+        boolean over = false;
+        int move = 0;
+        for (int i = begin; i < end; move++) {
+            int comma = line.indexOf(',', i);
+            if (comma < 0 || comma > end) {
+                comma = end;
+            }
+            if (over) {
+                return "move " + (move + 1) + " after the game was over";
+            }
+            int seat = move % players;
+            String error = game.apply(seat, line.substring(i, comma).trim(), 0);
+            if (error != null) {
+                return "move " + (move + 1) + ": " + error;
+            }
+            if (game.isWin(seat)) {
+                winner = seat;
+                over = true;
+            } else if (game.isDraw()) {
+                over = true;
+            }
+            i = comma + 1;
+        }
+        if (!over) {
+            return "not over after " + move + " moves";
+        }
+        if (winner < 0) {
+            counts[1]++;
+        }
+        if (seats != null && (winner < 0 ? 0 : seats[winner]) != victor) {
+            return "victor is " + (winner < 0 ? "nobody (draw)" : seats[winner] + " (seat " + winner + ")") + ", logged " + victor;
+        }
+        return null;
+    }
+
+    // The lines from..to of a batch, halved until LEAF lines are left.
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final String[] lines;
+        final long firstLine;           // Line number of lines[0]
+        final int from;
+        final int to;
+        final String[] reasons;         // Per line, null if it stands up; shared by the halves
+        final int[] counts = new int[3];
+
+        Batch(String[] lines, long firstLine, int from, int to, String[] reasons) {
+            this.lines = lines;
+            this.firstLine = firstLine;
+            this.from = from;
+            this.to = to;
+            this.reasons = reasons;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF) {
+                for (int i = from; i < to; i++) {
+                    reasons[i] = check(lines[i].trim(), counts);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            Batch left = new Batch(lines, firstLine, from, mid, reasons);
+            Batch right = new Batch(lines, firstLine, mid, to, reasons);
+            invokeAll(left, right);
+            for (int c = 0; c < counts.length; c++) {
+                counts[c] += left.counts[c] + right.counts[c];
+            }
+        }
+
+        void report(PrintStream out, long[] totals) {
+            for (int i = from; i < to; i++) {
+                if (reasons[i] != null) {
+                    out.println((firstLine + i) + ": " + reasons[i] + ": " + lines[i]);
+                    totals[1]++;
+                }
+            }
+            totals[0] += counts[0];
+            totals[2] += counts[1];
+            totals[3] += counts[2];
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The ShardStallCheck makes sure one dead switch connection does not stall
+ * the others.  A ShardRouter feeds two shard queues of capacity packs each
+ * (bounded like the sendQueue, under policy); shard 1's connection takes
+ * everything it is given, while shard 0's is held down, as in a reconnect
+ * backoff, and takes nothing.  Packs go to bots of both shards, every fifth
+ * a SERVER_MESSAGE.  The check fails if routing ever waits (a watchdog gives
+ * up after ten seconds), if shard 1 does not receive every pack in order
+ * while shard 0 is down, or if, once shard 0 comes back, it does not
+ * receive its own in order.  Under shed or reject only SERVER_MESSAGEs may
+ * go missing.  Example:
+ *   java cw_generic.sim.ShardStallCheck packs=100000 capacity=64 policy=block
+ */
+
+package cw_generic.sim;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import cw_generic.BoundedQueue;
+import cw_generic.CmdPack;
+import cw_generic.Command;
+import cw_generic.OutputPack;
+import cw_generic.OverloadPolicy;
+import cw_generic.ShardRouter;
+
+public class ShardStallCheck {
+
+    public static void main(String args[]) {
+        Properties p = Args.parse(args);
+        int packs = Integer.parseInt(p.getProperty("packs", "100000"));
+        int capacity = Integer.parseInt(p.getProperty("capacity", "64"));
+        OverloadPolicy policy = OverloadPolicy.forName(p.getProperty("policy", "block"));
+        BoundedQueue.Shedder<CmdPack> messages = new BoundedQueue.Shedder<CmdPack>() {
+            public boolean isSheddable(CmdPack pack) {
+                return "SERVER_MESSAGE".equals(pack.cmd.getCommandType());
+            }
+        };
+        List<BlockingQueue<CmdPack>> shardQueues = new ArrayList<BlockingQueue<CmdPack>>();
+        for (int i = 0; i < 2; i++) {
+            shardQueues.add(new BoundedQueue<CmdPack>("sendQueue.shard" + i,
+                    new LinkedBlockingQueue<CmdPack>(capacity), policy, messages, null));
+        }
+        ShardRouter router = new ShardRouter(new LinkedBlockingQueue<CmdPack>(), shardQueues,
+                Collections.synchronizedList(new ArrayList<OutputPack>()), "");
+
+        Thread watchdog = new Thread("Watchdog") {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                System.out.println("FAIL: routing waited for a shard which is down");
+                System.exit(1);
+            }
+        };
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        int[] sent = new int[2];
+        int[] required = new int[2];        // Packs which may not be shed
+        int[] received = new int[2];
+        int[] last = {-1, -1};
+        long start = System.nanoTime();
+        for (int i = 0; i < packs; i++) {
+            int bid = 1 + i % 200;
+            int shard = ShardRouter.shardOf(bid, 2);
+            String type = i % 5 == 0 ? "SERVER_MESSAGE" : "ACTION_REQUEST";
+            router.route(CmdPack.obtain(Command.obtain(type, Integer.toString(i)), bid, 5000));
+            sent[shard]++;
+            if (!type.equals("SERVER_MESSAGE")) {
+                required[shard]++;
+            }
+            receive(shardQueues.get(1), 1, received, last);
+        }
+        long routed = System.nanoTime() - start;
+        if (received[1] < required[1]) {
+            System.out.println("FAIL: shard 1 received " + received[1] + " of " + required[1] + " packs while shard 0 was down");
+            System.exit(1);
+        }
+        int held = router.getHeld(0);
+        System.out.println(String.format("while shard 0 was down: shard 1 received %d of %d packs, shard 0 has %d queued and %d held, routed in %.1fms",
+                received[1], sent[1], shardQueues.get(0).size(), held, routed / 1e6));
+
+        // Shard 0 reconnects: its connection drains the queue and the router
+        // refills it from what it held.
+        while (router.getHeld(0) > 0 || !shardQueues.get(0).isEmpty()) {
+            receive(shardQueues.get(0), 0, received, last);
+            router.route(null);
+        }
+        if (received[0] < required[0]) {
+            System.out.println("FAIL: shard 0 received " + received[0] + " of " + required[0] + " packs after it came back");
+            System.exit(1);
+        }
+        System.out.println(String.format("packs=%d capacity=%d policy=%s shard0 received=%d of %d shard1 received=%d of %d",
+                packs, capacity, policy, received[0], sent[0], received[1], sent[1]));
+        System.out.println("PASS");
+    }
+
+    // Everything waiting in shard's queue, as its connection would send it.
+    private static void receive(BlockingQueue<CmdPack> queue, int shard, int[] received, int[] last) {
+        CmdPack pack;
+        while ((pack = queue.poll()) != null) {
+            if (ShardRouter.shardOf(pack.getBID(), 2) != shard) {
+                System.out.println("FAIL: bot " + pack.getBID() + "'s pack on shard " + shard);
+                System.exit(1);
+            }
+            int i = Integer.parseInt(pack.cmd.getMetaData());
+            if (i <= last[shard]) {
+                System.out.println("FAIL: shard " + shard + " received pack " + i + " after " + last[shard]);
+                System.exit(1);
+            }
+            last[shard] = i;
+            received[shard]++;
+            pack.release();
+        }
+    }
+}
@@ -0,0 +1,637 @@
+/*
+ * The SwitchSimulator is a local stand-in for the code-wars switch.  It listens
+ * on the switch port (3000 by default), accepts the game server's REGISTER<<
+ * handshake and then logs in a configurable number of synthetic bots.  The
+ * bots speak the normal connect four protocol: they echo GAME_INITIALIZE,
+ * answer every ACTION_REQUEST with a random legal column after a configurable
+ * think time, and reset their board on GAME_REPORT or GAME_ABORT.
+ *
+ * Like the real switch, the simulator enforces the actionTime parameter.  A
+ * bot which fails to reply in time is disconnected and the game server is
+ * told with a DISCONNECT_BOT_REMOTE command.  Misbehaviour is injected with
+ * the invalid (bad column), timeout (never reply) and storm (disconnect a
+ * fraction of all bots at once) parameters.  Disconnected bots log in again
+ * after reloginDelay milliseconds.
+ *
+ * Every report interval the simulator prints games/sec, moves/sec, move
+ * latency percentiles and error counts.  Move latency is measured from the
+ * moment a bot writes its ACTION_REPLY until the next ACTION_REQUEST (or
+ * GAME_REPORT) for that game arrives, i.e. the full server round trip.  If the
+ * inprocess parameter names a log4j configuration file, a GameServer is
+ * started inside the simulator JVM and its queue depths are reported as well.
+ *
+ * With framing=binary the simulator accepts a game server's offer of binary
+ * framing (see FrameCodec) and reports the bytes received per message, so
+ * the text and binary protocols can be compared under the same load.
+ * Otherwise an offer is declined with FRAMING<<text.
+ *
+ * Every SERVER_PING is answered with a SERVER_PONG carrying the same
+ * sequence and timestamp.  pongStop=<ms> stops answering after that long,
+ * which looks like a half dead link to the game server.
+ *
+ * A game server using several switch connections announces "shard=i/K" in
+ * each REGISTER line.  The simulator then waits for all K connections before
+ * logging bots in, and sends each bot's traffic over the connection chosen by
+ * ShardRouter.shardOf, as the real switch must.
+ *
+ * All parameters are passed as key=value pairs, e.g.
+ *   java cw_generic.sim.SwitchSimulator bots=2000 think=5 invalid=0.001
+ *        storm=0.25 stormEvery=30000 inprocess=log4j.properties challenge=10000
+ */
+
+package cw_generic.sim;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.apache.log4j.PropertyConfigurator;
+
+import cw_generic.FrameCodec;
+import cw_generic.GameServer;
+import cw_generic.LatencyHistogram;
+import cw_generic.ServerMetrics;
+import cw_generic.ShardRouter;
+
+public class SwitchSimulator {
+
+    private final int port;
+    private final int botCount;
+    private final long think;              // Mean bot think time in milliseconds
+    private final long thinkJitter;        // Think time is think +/- thinkJitter
+    private final double invalidRate;      // Probability a reply is an illegal column
+    private final double timeoutRate;      // Probability a bot never replies
+    private final double stormFraction;    // Fraction of online bots dropped per storm
+    private final long stormEvery;         // Storm period in milliseconds (0 = never)
+    private final long reloginDelay;       // Time before a dropped bot logs in again
+    private final long duration;           // Total run time in milliseconds (0 = forever)
+    private final long reportInterval;
+    private final String inprocess;        // log4j config for an in-process GameServer
+    private final String challengeInterval;
+    private final boolean acceptBinary;    // Accept binary framing if the server offers it
+    private final long pongStop;           // Stop answering pings after this many ms (0 = never)
+    private long started;
+
+    private final Map<Integer, SimBot> bots = new ConcurrentHashMap<Integer, SimBot>();
+    private final Map<String, int[]> gamePairs = new ConcurrentHashMap<String, int[]>();
+    private final ScheduledExecutorService scheduler;
+    private final Random random = new Random();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> reportedLatencies = new HashMap<String, LatencyHistogram>();  // The in-process server's, as of the last report
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong gameReports = new AtomicLong();
+    private final AtomicLong protocolTests = new AtomicLong();
+    private final AtomicLong aborts = new AtomicLong();
+    private final AtomicLong invalidMoves = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong procedures = new AtomicLong();
+    private final AtomicLong pings = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile Link[] links;
+    private GameServer server;
+
+    public static void main(String args[]) throws Exception {
+        Properties p = Args.parse(args);
+        new SwitchSimulator(p).run();
+    }
+
+    public SwitchSimulator(Properties p) {
+        this.port = Integer.parseInt(p.getProperty("port", "3000"));
+        this.botCount = Integer.parseInt(p.getProperty("bots", "100"));
+        this.think = Long.parseLong(p.getProperty("think", "10"));
+        this.thinkJitter = Long.parseLong(p.getProperty("thinkJitter", "5"));
+        this.invalidRate = Double.parseDouble(p.getProperty("invalid", "0"));
+        this.timeoutRate = Double.parseDouble(p.getProperty("timeout", "0"));
+        this.stormFraction = Double.parseDouble(p.getProperty("storm", "0"));
+        this.stormEvery = Long.parseLong(p.getProperty("stormEvery", "0"));
+        this.reloginDelay = Long.parseLong(p.getProperty("reloginDelay", "2000"));
+        this.duration = Long.parseLong(p.getProperty("duration", "0"));
+        this.reportInterval = Long.parseLong(p.getProperty("report", "5000"));
+        this.inprocess = p.getProperty("inprocess");
+        this.challengeInterval = p.getProperty("challenge", "10000");
+        this.acceptBinary = p.getProperty("framing", "text").equals("binary");
+        this.pongStop = Long.parseLong(p.getProperty("pongStop", "0"));
+        this.scheduler = Executors.newScheduledThreadPool(Integer.parseInt(p.getProperty("threads", "4")));
+    }
+
+    public void run() throws Exception {
+        ServerSocket listener = new ServerSocket(port);
+        System.out.println("SwitchSimulator listening on port " + port + " with " + botCount + " bots");
+        if (inprocess != null) {
+            PropertyConfigurator.configure(inprocess);
+            server = new GameServer(new String[]{inprocess, challengeInterval});
+        }
+        Link first = accept(listener);
+        if (first == null) {
+            return;
+        }
+        links = new Link[first.shards];
+        links[first.shard] = first;
+        for (int i = 1; i < links.length; i++) {
+            Link link = accept(listener);
+            if (link == null) {
+                return;
+            }
+            links[link.shard] = link;
+        }
+        for (int i = 0; i < links.length; i++) {
+            if (links[i] != first) {
+                final Link link = links[i];
+                final ServerSocket l = listener;
+                new Thread(new Runnable() {
+                    public void run() {
+                        serve(l, link);
+                    }
+                }, "SimLink-" + i).start();
+            }
+        }
+
+        for (int bid = 1; bid <= botCount; bid++) {
+            SimBot b = new SimBot(bid);
+            bots.put(bid, b);
+            b.login();
+        }
+        final long start = System.currentTimeMillis();
+        started = start;
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report(start);
+            }
+        }, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        if (stormEvery > 0 && stormFraction > 0) {
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    storm();
+                }
+            }, stormEvery, stormEvery, TimeUnit.MILLISECONDS);
+        }
+        if (duration > 0) {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    report(start);
+                    System.exit(0);
+                }
+            }, duration, TimeUnit.MILLISECONDS);
+        }
+
+        serve(listener, first);
+        scheduler.shutdownNow();
+    }
+
+    // Read from a connection until it closes, then wait for the game server
+    // to reconnect and carry on with the new connection.
+    private void serve(ServerSocket listener, Link link) {
+        while (link != null) {
+            link.read();
+            System.out.println("Game server closed connection " + link.shard + ", waiting for it to reconnect.");
+            try {
+                link = accept(listener);
+            } catch (IOException e) {
+                link = null;
+            }
+            if (link != null) {
+                links[link.shard] = link;
+            }
+        }
+    }
+
+    // Accept one game server connection and complete its handshake.
+    private Link accept(ServerSocket listener) throws IOException {
+        Socket socket = listener.accept();
+        socket.setTcpNoDelay(true);
+        Link link = new Link(socket);
+        String register = FrameCodec.readLine(link.rawIn);
+        if (register == null || !register.startsWith("REGISTER<<")) {
+            System.out.println("Expected REGISTER<< handshake, got: " + register);
+            socket.close();
+            return null;
+        }
+        System.out.println("Game server registered: " + register.substring(10));
+        int at = register.indexOf(":shard=");
+        if (at >= 0) {
+            int slash = register.indexOf('/', at);
+            int end = register.indexOf(':', slash);
+            link.shard = Integer.parseInt(register.substring(at + 7, slash));
+            link.shards = Integer.parseInt(register.substring(slash + 1, end < 0 ? register.length() : end));
+        }
+        if (acceptBinary && register.endsWith(":framing=binary")) {
+            link.rawOut.write((FrameCodec.ACCEPT + "\n").getBytes("UTF-8"));
+            link.rawOut.flush();
+            link.frames = new DataOutputStream(link.rawOut);
+            System.out.println("Using binary framing");
+        } else {
+            if (register.endsWith(":framing=binary")) {
+                // Decline; the game server registers again in text.
+                link.rawOut.write((FrameCodec.DECLINE + "\n").getBytes("UTF-8"));
+                link.rawOut.flush();
+                String plain = FrameCodec.readLine(link.rawIn);
+                if (plain == null || !plain.startsWith("REGISTER<<")) {
+                    System.out.println("Expected REGISTER<< after declining binary framing, got: " + plain);
+                    socket.close();
+                    return null;
+                }
+                System.out.println("Declined binary framing");
+            }
+            link.out = new PrintWriter(new OutputStreamWriter(link.rawOut, "UTF-8"), true);
+        }
+        return link;
+    }
+
+    // One connection from the game server.
+    private class Link {
+        final InputStream rawIn;
+        final OutputStream rawOut;
+        PrintWriter out;
+        DataOutputStream frames;       // Non-null once binary framing is in use
+        int shard = 0;
+        int shards = 1;
+
+        Link(Socket socket) throws IOException {
+            rawIn = new BufferedInputStream(socket.getInputStream(), 16384);
+            rawOut = new BufferedOutputStream(socket.getOutputStream(), 16384);
+        }
+
+        void read() {
+            try {
+                if (frames != null) {
+                    DataInputStream in = new DataInputStream(rawIn);
+                    try {
+                        while (true) {
+                            bytesIn.addAndGet(readFrame(in) + 4);
+                        }
+                    } catch (EOFException e) {
+                        // Connection closed
+                    }
+                } else {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(rawIn, "UTF-8"));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        bytesIn.addAndGet(line.length() + 1);
+                        if (line.startsWith("SERVER_PING<<")) {
+                            pong(line.substring(13));
+                        }
+                        route(line);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Read from game server failed: " + e);
+            }
+        }
+
+        // Read and dispatch one frame, unpacking BATCH frames.  Returns the
+        // frame length.
+        int readFrame(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            int code = in.readUnsignedByte();
+            int bid = in.readInt();
+            int actionTime = in.readInt();
+            byte[] body = new byte[length - 9];
+            in.readFully(body);
+            String type = FrameCodec.typeName(code);
+            if ("BATCH".equals(type)) {
+                batches.incrementAndGet();
+                DataInputStream inner = new DataInputStream(new ByteArrayInputStream(body));
+                while (inner.available() > 0) {
+                    readFrame(inner);
+                }
+                return length;
+            }
+            String payload = new String(body, "UTF-8");
+            if (type == null) {
+                int sep = payload.indexOf("<<");
+                type = payload.substring(0, sep);
+                payload = payload.substring(sep + 2);
+            }
+            if (type.equals("SERVER_PING")) {
+                pong(payload);
+            }
+            route(type, bid, actionTime, payload);
+            return length;
+        }
+
+        void pong(String payload) throws IOException {
+            if (pongStop > 0 && System.currentTimeMillis() - started > pongStop) {
+                return;
+            }
+            if (frames != null) {
+                synchronized (frames) {
+                    FrameCodec.writeFrame(frames, "SERVER_PONG", FrameCodec.NO_BID, 0, payload);
+                    frames.flush();
+                }
+            } else {
+                synchronized (out) {
+                    out.println("SERVER_PONG<<" + payload);
+                }
+            }
+        }
+
+        void send(String type, int bid, String payload) throws IOException {
+            if (frames != null) {
+                synchronized (frames) {
+                    FrameCodec.writeFrame(frames, type, bid, 0, payload);
+                    frames.flush();
+                }
+            } else {
+                synchronized (out) {
+                    out.println(type + "<<" + (payload.length() == 0 ? String.valueOf(bid) : bid + ":" + payload));
+                }
+            }
+        }
+    }
+
+    // Dispatch one line written by the game server.  Commands forwarded to a
+    // bot carry "bid:actionTime:" in front of their metadata; everything else
+    // is addressed to the switch itself.
+    private void route(String line) {
+        int sep = line.indexOf("<<");
+        if (sep < 0) {
+            return;
+        }
+        String type = line.substring(0, sep);
+        String meta = line.substring(sep + 2);
+        if (type.equals("SERVER_PING") || type.equals("EXECUTE_PROCEDURE")) {
+            route(type, FrameCodec.NO_BID, 0, meta);
+            return;
+        }
+        int c1 = meta.indexOf(':');
+        int c2 = c1 < 0 ? -1 : meta.indexOf(':', c1 + 1);
+        if (c2 < 0) {
+            return;
+        }
+        int bid;
+        long actionTime;
+        try {
+            bid = Integer.parseInt(meta.substring(0, c1));
+            actionTime = Long.parseLong(meta.substring(c1 + 1, c2));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        route(type, bid, actionTime, meta.substring(c2 + 1));
+    }
+
+    private void route(String type, int bid, long actionTime, String payload) {
+        received.incrementAndGet();
+        if (type.equals("SERVER_PING")) {
+            pings.incrementAndGet();
+            return;
+        }
+        if (type.equals("EXECUTE_PROCEDURE")) {
+            procedures.incrementAndGet();
+            return;
+        }
+        SimBot b = bots.get(bid);
+        if (b != null) {
+            b.receive(type, actionTime, payload);
+        }
+    }
+
+    // Send a command from bot bid over its shard's connection.  The text form
+    // is "TYPE<<bid:payload".
+    private void send(String type, int bid, String payload) {
+        try {
+            links[ShardRouter.shardOf(bid, links.length)].send(type, bid, payload);
+        } catch (IOException e) {
+            System.out.println("Write to game server failed: " + e);
+        }
+    }
+
+    private void storm() {
+        int dropped = 0;
+        for (SimBot b : bots.values()) {
+            if (b.isOnline() && random.nextDouble() < stormFraction) {
+                b.drop("storm");
+                dropped++;
+            }
+        }
+        System.out.println("Disconnect storm dropped " + dropped + " bots");
+    }
+
+    private void report(long start) {
+        double secs = (System.currentTimeMillis() - start) / 1000.0;
+        int online = 0;
+        for (SimBot b : bots.values()) {
+            if (b.isOnline()) {
+                online++;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("[%8.1fs] online=%d games/s=%.1f moves/s=%.1f protocolTests=%d aborts=%d",
+                secs, online, gameReports.get() / 2 / secs, moves.get() / secs, protocolTests.get(), aborts.get()));
+        sb.append(String.format(" invalid=%d timeouts=%d disconnects=%d procedures=%d pings=%d batches=%d bytes/msg=%.1f",
+                invalidMoves.get(), timeouts.get(), disconnects.get(), procedures.get(), pings.get(), batches.get(),
+                received.get() == 0 ? 0.0 : (double) bytesIn.get() / received.get()));
+        sb.append("\n           moveLatency ").append(moveLatency.summary());
+        if (server != null) {
+            String latencies = ServerMetrics.histogramSummary(reportedLatencies);
+            if (latencies.length() > 0) {
+                sb.append("\n           ").append(latencies.replace("\n", "\n           "));
+            }
+            sb.append("\n           queues commandQueue=").append(server.commandQueue.size())
+                    .append(" sendQueue=").append(server.sendQueue.size())
+                    .append(" outQueue=").append(server.outQueue.size());
+            String metrics = ServerMetrics.summary();
+            if (metrics.length() > 0) {
+                sb.append("\n           metrics ").append(metrics);
+            }
+        }
+        moveLatency.reset();
+        System.out.println(sb);
+    }
+
+    private long thinkTime() {
+        if (thinkJitter <= 0) {
+            return think;
+        }
+        return Math.max(0, think - thinkJitter + (long) (random.nextDouble() * 2 * thinkJitter));
+    }
+
+    // A synthetic bot.  All state changes are made while holding the bot's
+    // monitor because the reader thread and the scheduler threads both touch it.
+    private class SimBot {
+        private final int bid;
+        private boolean online;
+        private int[] height = new int[7];
+        private String gid;
+        private volatile long replySent;   // Set when this bot's opponent replies
+        private long requestSeq;           // Increments on each ACTION_REQUEST
+
+        SimBot(int bid) {
+            this.bid = bid;
+        }
+
+        synchronized boolean isOnline() {
+            return online;
+        }
+
+        synchronized void login() {
+            online = true;
+            resetBoard();
+            send("LOGIN_INFORM", bid, "mode=1");
+        }
+
+        synchronized void drop(String reason) {
+            if (!online) {
+                return;
+            }
+            online = false;
+            disconnects.incrementAndGet();
+            send("DISCONNECT_BOT_REMOTE", bid, "");
+            scheduleLogin();
+        }
+
+        private void scheduleLogin() {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    login();
+                }
+            }, reloginDelay, TimeUnit.MILLISECONDS);
+        }
+
+        private void resetBoard() {
+            Arrays.fill(height, 0);
+            if (gid != null) {
+                gamePairs.remove(gid);
+            }
+            gid = null;
+            replySent = 0;
+        }
+
+        synchronized void receive(String type, long actionTime, String payload) {
+            if (type.equals("DISCONNECT_BOT_REMOTE")) {
+                // The game server asked the switch to drop this bot.
+                if (online) {
+                    online = false;
+                    disconnects.incrementAndGet();
+                    scheduleLogin();
+                }
+                return;
+            }
+            if (!online) {
+                return;
+            }
+            if (type.equals("GAME_INITIALIZE")) {
+                resetBoard();
+                gid = payload;
+                int[] pair = gamePairs.get(gid);
+                if (pair == null) {
+                    gamePairs.put(gid, new int[]{bid, 0});
+                } else {
+                    pair[1] = bid;
+                }
+                final String echo = payload;
+                scheduler.schedule(new Runnable() {
+                    public void run() {
+                        if (isOnline()) {
+                            send("GAME_INITIALIZE", bid, echo);
+                        }
+                    }
+                }, thinkTime(), TimeUnit.MILLISECONDS);
+            } else if (type.equals("ACTION_REQUEST")) {
+                recordLatency();
+                int last = parseMove(payload);
+                if (last >= 1 && last <= 7) {
+                    height[last - 1]++;
+                }
+                final long seq = ++requestSeq;
+                if (actionTime > 0) {
+                    scheduler.schedule(new Runnable() {
+                        public void run() {
+                            deadline(seq);
+                        }
+                    }, actionTime, TimeUnit.MILLISECONDS);
+                }
+                if (random.nextDouble() < timeoutRate) {
+                    return;
+                }
+                scheduler.schedule(new Runnable() {
+                    public void run() {
+                        reply(seq);
+                    }
+                }, thinkTime(), TimeUnit.MILLISECONDS);
+            } else if (type.equals("GAME_REPORT")) {
+                recordLatency();
+                gameReports.incrementAndGet();
+                resetBoard();
+            } else if (type.equals("GAME_ABORT")) {
+                aborts.incrementAndGet();
+                resetBoard();
+            } else if (type.equals("SERVER_MESSAGE")) {
+                if (payload.startsWith("Protocol Test Passed")) {
+                    recordLatency();
+                    protocolTests.incrementAndGet();
+                    resetBoard();
+                }
+            }
+        }
+
+        private synchronized void reply(long seq) {
+            if (!online || seq != requestSeq) {
+                return;
+            }
+            int move;
+            if (random.nextDouble() < invalidRate) {
+                move = 8;
+                invalidMoves.incrementAndGet();
+            } else {
+                move = pickColumn();
+                height[move - 1]++;
+            }
+            requestSeq++;   // Answered: the pending deadline no longer applies.
+            moves.incrementAndGet();
+            markReply();
+            send("ACTION_REPLY", bid, "0:" + move);
+        }
+
+        private synchronized void deadline(long seq) {
+            if (online && seq == requestSeq) {
+                timeouts.incrementAndGet();
+                drop("timeout");
+            }
+        }
+
+        private int pickColumn() {
+            int start = random.nextInt(7);
+            for (int i = 0; i < 7; i++) {
+                int col = (start + i) % 7;
+                if (height[col] < 6) {
+                    return col + 1;
+                }
+            }
+            return 1;
+        }
+
+        // The opponent's next ACTION_REQUEST ends the round trip started by
+        // this reply.  In protocol tests the server answers this bot directly.
+        private void markReply() {
+            long now = System.nanoTime();
+            int[] pair = gid == null ? null : gamePairs.get(gid);
+            SimBot target = this;
+            if (pair != null && pair[1] != 0) {
+                SimBot opp = bots.get(pair[0] == bid ? pair[1] : pair[0]);
+                if (opp != null) {
+                    target = opp;
+                }
+            }
+            target.replySent = now;
+        }
+
+        private void recordLatency() {
+            if (replySent != 0) {
+                moveLatency.record(System.nanoTime() - replySent);
+                replySent = 0;
+            }
+        }
+
+        private int parseMove(String payload) {
+            try {
+                return Integer.parseInt(payload.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The UnderCutCheck drives an in-process UnderCut GameServer as fast as it
+ * can: bots log in and pass their protocol test, then every CHALLENGE pairs
+ * them up and each ACTION_REQUEST is answered at once with a random number.
+ * It reports how many games and rounds per minute one CommandProcessor
+ * manages, and how many bytes the round barrier allocates: from the second
+ * ACTION_REPLY of a round, through resolution, to both ACTION_REQUESTs of
+ * the next round being written by a SwitchWriter.  Allocation is read from
+ * the JVM's per-thread allocation counter, so it needs a HotSpot based JVM.
+ * The check fails if more than one round in a thousand allocates over
+ * maxBytes (default 0).  Example:
+ *   java cw_generic.sim.UnderCutCheck bots=1000 challenges=20 rounds=200
+ */
+
+package cw_generic.sim;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import UnderCut.UnderCutChallenge;
+import cw_generic.CmdPack;
+import cw_generic.Command;
+import cw_generic.GameManager;
+import cw_generic.GameServer;
+import cw_generic.SwitchWriter;
+
+public class UnderCutCheck {
+
+    private final int botCount;
+    private final int challenges;
+    private final long maxBytes;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final Random random = new Random(7);
+    private Command[][] replies;                 // Prebuilt ACTION_REPLY per bid and number
+    private final ArrayDeque<Command> inbox = new ArrayDeque<Command>();
+    private GameServer server;
+    private SwitchWriter writer;
+    private long games;
+    private long rounds;
+    private long over;
+
+    public static void main(String args[]) throws Exception {
+        Properties p = Args.parse(args);
+        System.setProperty("cw.undercut.rounds", p.getProperty("rounds", "200"));
+        System.exit(new UnderCutCheck(p).run() ? 0 : 1);
+    }
+
+    public UnderCutCheck(Properties p) {
+        this.botCount = Integer.parseInt(p.getProperty("bots", "1000"));
+        this.challenges = Integer.parseInt(p.getProperty("challenges", "20"));
+        this.maxBytes = Long.parseLong(p.getProperty("maxBytes", "0"));
+    }
+
+    public boolean run() throws Exception {
+        System.setProperty("cw.pipeline", "ring");
+        threads.setThreadAllocatedMemoryEnabled(true);
+        GameManager.setRandom(new Random(7));
+        GameManager.resetGameIds();
+        server = new GameServer(new Random(7), new UnderCutChallenge());
+        writer = new SwitchWriter(new NullOutputStream(), true);
+        replies = new Command[botCount + 1][6];
+        for (int bid = 1; bid <= botCount; bid++) {
+            for (int n = 1; n <= 5; n++) {
+                Command c = new Command("ACTION_REPLY", bid + ":0:" + n);
+                c.setBID(bid);
+                replies[bid][n] = c;
+            }
+            server.process(new Command("LOGIN_INFORM", bid + ":mode=1"));
+        }
+        drain(false);
+
+        long start = System.nanoTime();
+        for (int c = 0; c < challenges; c++) {
+            server.process(new Command("CHALLENGE"));
+            drain(c > 0);
+        }
+        double minutes = (System.nanoTime() - start) / 60e9;
+        System.out.println(String.format("bots=%d games=%d rounds=%d games/min=%.0f rounds/min=%.0f limit=%d overLimit=%d",
+                botCount, games, rounds, games / minutes, rounds / minutes, maxBytes, over));
+        boolean ok = games > 0 && over * 1000 <= rounds;
+        System.out.println(ok ? "PASS" : "FAIL: round resolution allocates more than " + maxBytes + " bytes");
+        return ok;
+    }
+
+    // Answer everything until no bot has anything left to do.  Only rounds
+    // whose resolution produces exactly the two next requests are measured,
+    // and only once the code is warm.
+    private void drain(boolean measure) throws IOException {
+        routeAll();
+        long id = Thread.currentThread().getId();
+        while (!inbox.isEmpty()) {
+            Command cmd = inbox.poll();
+            long before = threads.getThreadAllocatedBytes(id);
+            server.process(cmd);
+            CmdPack first = server.sendQueue.poll();
+            CmdPack second = first == null ? null : server.sendQueue.poll();
+            if (cmd.getCommandType().equals("ACTION_REPLY") && first != null && second != null && server.sendQueue.peek() == null
+                    && first.cmd.getCommandType().equals("ACTION_REQUEST")
+                    && second.cmd.getCommandType().equals("ACTION_REQUEST")) {
+                writer.write(first);
+                writer.write(second);
+                writer.flush();
+                long used = threads.getThreadAllocatedBytes(id) - before;
+                rounds++;
+                if (measure && used > maxBytes) {
+                    over++;
+                }
+            } else {
+                if (first != null) {
+                    writer.write(first);
+                }
+                if (second != null) {
+                    writer.write(second);
+                }
+                writer.flush();
+            }
+            if (first != null) {
+                route(first);
+            }
+            if (second != null) {
+                route(second);
+            }
+            routeAll();
+        }
+    }
+
+    private void routeAll() throws IOException {
+        CmdPack pack;
+        while ((pack = server.sendQueue.poll()) != null) {
+            writer.write(pack);
+            writer.flush();
+            route(pack);
+        }
+    }
+
+    // What a bot does with one pack: GAME_INITIALIZE is echoed and an
+    // ACTION_REQUEST answered with a random number.
+    private void route(CmdPack pack) {
+        String type = pack.cmd.getCommandType();
+        int bid = pack.getBID();
+        if (type.equals("GAME_INITIALIZE")) {
+            Command echo = new Command("GAME_INITIALIZE", bid + ":" + pack.getPayload());
+            echo.setBID(bid);
+            inbox.add(echo);
+        } else if (type.equals("ACTION_REQUEST")) {
+            inbox.add(replies[bid][random.nextInt(5) + 1]);
+        } else if (type.equals("EXECUTE_PROCEDURE")) {
+            games++;
+        }
+        pack.release();
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
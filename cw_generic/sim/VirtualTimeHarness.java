@@ -0,0 +1,456 @@
+/*
+ * The VirtualTimeHarness runs GameServer logic against synthetic bots in
+ * virtual time.  No sockets or threads are involved: a GameServer is built
+ * with the thread-less constructor, every command is handed to process()
+ * directly and the replies are collected from sendQueue after each step.
+ *
+ * A single discrete event queue replaces every source of time in the server.
+ * CHALLENGE (challengeInterval, 60 s by default), CLEAN_OUTPUT (5 s) and the
+ * switch keepalive pings (20 s) are scheduled as periodic events, and the
+ * process wide Clock is switched to the event queue's virtual time so that
+ * OutputPack expiry follows the simulation.  Bot think times, the switch's
+ * actionTime enforcement and re-logins are events too.
+ *
+ * All randomness comes from the seed: GameManager's starting player and
+ * protocol test moves, the pairing shuffle in challengeEvent and every bot
+ * decision.  The same seed therefore produces exactly the same traffic; the
+ * run prints a digest of all server output to make this easy to check, and
+ * verify=true runs the simulation twice and compares the digests.
+ *
+ * linkDropEvery=ms drops the switch link that often (for linkDownFor ms,
+ * default 3000), up to five seconds late so that it falls in the middle of
+ * the games a CHALLENGE has just started.  Packs are
+ * journaled as the CommandSender journals them; while the link is down
+ * their writes fail and bots' answers are lost, while logins and
+ * disconnects wait at the switch.  The link then comes back with
+ * SWITCH_RECONNECTED and the server replays its journal.  The run fails if
+ * a game is logged twice (the same EXECUTE_PROCEDURE reaching the switch
+ * again) or if a bot is left in a game nobody is moving in (online, but
+ * told nothing for the last three CHALLENGE intervals).  Examples:
+ *   java cw_generic.sim.VirtualTimeHarness seed=42 bots=5000 hours=6
+ *        think=200 invalid=0.0005 timeout=0.0002 verify=true
+ *   java cw_generic.sim.VirtualTimeHarness seed=42 bots=500 hours=1 linkDropEvery=300000
+ */
+
+package cw_generic.sim;
+
+import java.util.*;
+
+import cw_generic.Clock;
+import cw_generic.CmdPack;
+import cw_generic.Command;
+import cw_generic.GameManager;
+import cw_generic.GameServer;
+import cw_generic.OutboundJournal;
+
+public class VirtualTimeHarness {
+
+    private final long seed;
+    private final int botCount;
+    private final long duration;           // Virtual milliseconds to simulate
+    private final long think;
+    private final long thinkJitter;
+    private final double invalidRate;
+    private final double timeoutRate;
+    private final long reloginDelay;
+    private final long challengeInterval;
+    private final long purgeInterval;
+    private final long pingInterval;
+    private final long linkDropEvery;      // 0 = the link never drops
+    private final long linkDownFor;
+
+    private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+    private final VirtualClock clock = new VirtualClock();
+    private GameServer server;
+    private Random random;
+    private SimBot[] bots;
+    private long sequence;
+    private long digest;
+
+    private long processed;
+    private long moves;
+    private long gameReports;
+    private long protocolTests;
+    private long aborts;
+    private long invalidMoves;
+    private long timeouts;
+    private long procedures;
+    private long pings;
+
+    private OutboundJournal journal;
+    private boolean linkUp;
+    private final List<Command> switchBacklog = new ArrayList<Command>();   // Logins and disconnects held while the link is down
+    private final Set<String> logged = new HashSet<String>();               // Procedures which reached the switch
+    private long linkDrops;
+    private long lostWrites;
+    private long lostAnswers;
+    private long duplicateProcedures;
+
+    public static void main(String args[]) throws Exception {
+        Properties p = Args.parse(args);
+        long first = new VirtualTimeHarness(p).run();
+        if (Boolean.parseBoolean(p.getProperty("verify", "false"))) {
+            long second = new VirtualTimeHarness(p).run();
+            System.out.println(first == second ? "Reproducible: digests match."
+                    : "NOT reproducible: " + Long.toHexString(first) + " != " + Long.toHexString(second));
+        }
+    }
+
+    public VirtualTimeHarness(Properties p) {
+        this.seed = Long.parseLong(p.getProperty("seed", "1"));
+        this.botCount = Integer.parseInt(p.getProperty("bots", "1000"));
+        this.duration = (long) (Double.parseDouble(p.getProperty("hours", "1")) * 3600 * 1000);
+        this.think = Long.parseLong(p.getProperty("think", "100"));
+        this.thinkJitter = Long.parseLong(p.getProperty("thinkJitter", "50"));
+        this.invalidRate = Double.parseDouble(p.getProperty("invalid", "0"));
+        this.timeoutRate = Double.parseDouble(p.getProperty("timeout", "0"));
+        this.reloginDelay = Long.parseLong(p.getProperty("reloginDelay", "30000"));
+        this.challengeInterval = Long.parseLong(p.getProperty("challenge", "60000"));
+        this.purgeInterval = Long.parseLong(p.getProperty("purge", "5000"));
+        this.pingInterval = Long.parseLong(p.getProperty("ping", "20000"));
+        this.linkDropEvery = Long.parseLong(p.getProperty("linkDropEvery", "0"));
+        this.linkDownFor = Long.parseLong(p.getProperty("linkDownFor", "3000"));
+    }
+
+    // Run the simulation and return the digest of everything the server sent.
+    public long run() {
+        events.clear();
+        sequence = 0;
+        digest = 0;
+        clock.now = 0;
+        random = new Random(seed);
+        Clock previous = Clock.get();
+        Clock.set(clock);
+        GameManager.setRandom(new Random(random.nextLong()));
+        GameManager.resetGameIds();
+        server = new GameServer(new Random(random.nextLong()));
+        journal = server.journals[0];
+        linkUp = true;
+        switchBacklog.clear();
+        logged.clear();
+        linkDrops = lostWrites = lostAnswers = duplicateProcedures = 0;
+        bots = new SimBot[botCount + 1];
+        long wallStart = System.currentTimeMillis();
+        try {
+            for (int bid = 1; bid <= botCount; bid++) {
+                bots[bid] = new SimBot(bid);
+                // Stagger the initial logins over the first second.
+                schedule(random.nextInt(1000), bots[bid].loginEvent());
+            }
+            schedule(challengeInterval, new Periodic(challengeInterval) {
+                void tick() {
+                    deliver(new Command("CHALLENGE", "null"));
+                }
+            });
+            schedule(purgeInterval, new Periodic(purgeInterval) {
+                void tick() {
+                    deliver(new Command("CLEAN_OUTPUT", "null"));
+                }
+            });
+            schedule(pingInterval, new Periodic(pingInterval) {
+                void tick() {
+                    pings++;
+                }
+            });
+            if (linkDropEvery > 0) {
+                schedule(linkDropEvery, new Periodic(linkDropEvery) {
+                    void tick() {
+                        // Into the games a CHALLENGE due now is starting.
+                        schedule(1 + random.nextInt(5000), new Event() {
+                            void fire() {
+                                dropLink();
+                            }
+                        });
+                    }
+                });
+            }
+
+            while (!events.isEmpty() && events.peek().time <= duration) {
+                Event e = events.poll();
+                clock.now = e.time;
+                e.fire();
+            }
+        } finally {
+            Clock.set(previous);
+        }
+        long wall = System.currentTimeMillis() - wallStart;
+        System.out.println(String.format("seed=%d simulated=%.1fh wall=%dms commands=%d moves=%d games=%d protocolTests=%d"
+                + " aborts=%d invalid=%d timeouts=%d procedures=%d pings=%d digest=%016x",
+                seed, duration / 3600000.0, wall, processed, moves, gameReports / 2, protocolTests,
+                aborts, invalidMoves, timeouts, procedures, pings, digest));
+        if (linkDropEvery > 0) {
+            int stalled = 0;
+            for (int bid = 1; bid <= botCount; bid++) {
+                if (bots[bid].online && clock.now - bots[bid].lastHeard > 3 * challengeInterval) {
+                    stalled++;
+                }
+            }
+            System.out.println(String.format("linkDrops=%d lostWrites=%d lostAnswers=%d duplicateProcedures=%d stalledBots=%d",
+                    linkDrops, lostWrites, lostAnswers, duplicateProcedures, stalled));
+            System.out.println(duplicateProcedures == 0 && stalled == 0 ? "PASS" : "FAIL");
+        }
+        return digest;
+    }
+
+    // The link fails: every write fails and every answer is lost until it is
+    // back linkDownFor later.
+    private void dropLink() {
+        linkUp = false;
+        linkDrops++;
+        journal.linkDown();
+        schedule(linkDownFor, new Event() {
+            void fire() {
+                linkUp = true;
+                List<Command> held = new ArrayList<Command>(switchBacklog);
+                switchBacklog.clear();
+                for (Command c : held) {
+                    deliver(c);
+                }
+                deliver(new Command("SWITCH_RECONNECTED", "0"));
+            }
+        });
+    }
+
+    // A bot's answer, acknowledging what it was sent, as the SwitchListener
+    // reads it.  Lost while the link is down.
+    private void answer(Command cmd) {
+        if (!linkUp) {
+            lostAnswers++;
+            return;
+        }
+        journal.acknowledge(cmd.getBID());
+        deliver(cmd);
+    }
+
+    // A login or disconnect from the switch, which holds it while the link is
+    // down.
+    private void fromSwitch(Command cmd) {
+        if (linkUp) {
+            deliver(cmd);
+        } else {
+            switchBacklog.add(cmd);
+        }
+    }
+
+    private void schedule(long delay, Event e) {
+        e.time = clock.now + delay;
+        e.order = sequence++;
+        events.add(e);
+    }
+
+    // Hand a command to the server and route everything it produced.
+    private void deliver(Command cmd) {
+        processed++;
+        server.process(cmd);
+        CmdPack pack;
+        while ((pack = server.sendQueue.poll()) != null) {
+            Command c = pack.cmd;
+            digest = digest * 31 + clock.now;
+            digest = digest * 31 + c.getCommandType().hashCode();
+            digest = digest * 31 + pack.getRoutedMetaData().hashCode();
+            if (pack.getBID() < 0) {
+                server.outQueue.add(pack.getOutPack());
+                pack.release();
+                continue;
+            }
+            // Written to the switch as by the CommandSender.
+            journal.begin(pack);
+            if (!linkUp) {
+                lostWrites++;
+            } else if (pack.getBID() == 0) {
+                if (c.getCommandType().equals("EXECUTE_PROCEDURE")) {
+                    procedures++;
+                    if (linkDropEvery > 0 && !logged.add(pack.getPayload())) {
+                        duplicateProcedures++;
+                    }
+                }
+            } else if (pack.getBID() <= botCount) {
+                bots[pack.getBID()].receive(c.getCommandType(), pack.getActionTime(), pack.getPayload());
+            }
+            if (!journal.record(pack, !linkUp)) {
+                pack.release();
+            }
+        }
+    }
+
+    private long thinkTime() {
+        if (thinkJitter <= 0) {
+            return think;
+        }
+        return Math.max(0, think - thinkJitter + (long) (random.nextDouble() * 2 * thinkJitter));
+    }
+
+    private static class VirtualClock extends Clock {
+        long now;
+
+        @Override
+        public long millis() {
+            return now;
+        }
+    }
+
+    private abstract static class Event implements Comparable<Event> {
+        long time;
+        long order;         // Tie breaker so equal times fire in scheduling order
+
+        abstract void fire();
+
+        public int compareTo(Event o) {
+            if (time != o.time) {
+                return time < o.time ? -1 : 1;
+            }
+            return order < o.order ? -1 : (order == o.order ? 0 : 1);
+        }
+    }
+
+    private abstract class Periodic extends Event {
+        private final long interval;
+
+        Periodic(long interval) {
+            this.interval = interval;
+        }
+
+        abstract void tick();
+
+        void fire() {
+            tick();
+            schedule(interval, this);
+        }
+    }
+
+    // A synthetic bot, equivalent to the SwitchSimulator's, driven by events.
+    private class SimBot {
+        private final int bid;
+        private boolean online;
+        private long lastHeard;         // When the switch last passed on anything for this bot
+        private final int[] height = new int[7];
+        private long requestSeq;
+
+        SimBot(int bid) {
+            this.bid = bid;
+        }
+
+        Event loginEvent() {
+            return new Event() {
+                void fire() {
+                    online = true;
+                    lastHeard = clock.now;
+                    Arrays.fill(height, 0);
+                    fromSwitch(new Command("LOGIN_INFORM", bid + ":mode=1"));
+                }
+            };
+        }
+
+        void drop() {
+            online = false;
+            requestSeq++;
+            fromSwitch(new Command("DISCONNECT_BOT_REMOTE", String.valueOf(bid)));
+            schedule(reloginDelay, loginEvent());
+        }
+
+        void receive(String type, long actionTime, String payload) {
+            lastHeard = clock.now;
+            if (type.equals("DISCONNECT_BOT_REMOTE")) {
+                if (online) {
+                    online = false;
+                    requestSeq++;
+                    schedule(reloginDelay, loginEvent());
+                }
+                return;
+            }
+            if (!online) {
+                return;
+            }
+            if (type.equals("GAME_INITIALIZE")) {
+                Arrays.fill(height, 0);
+                final String echo = bid + ":" + payload;
+                final long seq = ++requestSeq;
+                armDeadline(seq, actionTime);
+                schedule(thinkTime(), new Event() {
+                    void fire() {
+                        if (online && seq == requestSeq) {
+                            requestSeq++;
+                            answer(new Command("GAME_INITIALIZE", echo));
+                        }
+                    }
+                });
+            } else if (type.equals("ACTION_REQUEST")) {
+                int last = parseMove(payload);
+                if (last >= 1 && last <= 7) {
+                    height[last - 1]++;
+                }
+                final long seq = ++requestSeq;
+                armDeadline(seq, actionTime);
+                if (random.nextDouble() < timeoutRate) {
+                    return;
+                }
+                schedule(thinkTime(), new Event() {
+                    void fire() {
+                        reply(seq);
+                    }
+                });
+            } else if (type.equals("GAME_REPORT")) {
+                gameReports++;
+                Arrays.fill(height, 0);
+            } else if (type.equals("GAME_ABORT")) {
+                aborts++;
+                Arrays.fill(height, 0);
+            } else if (type.equals("SERVER_MESSAGE")) {
+                if (payload.startsWith("Protocol Test Passed")) {
+                    protocolTests++;
+                    Arrays.fill(height, 0);
+                }
+            }
+        }
+
+        private void armDeadline(final long seq, long actionTime) {
+            if (actionTime <= 0) {
+                return;
+            }
+            schedule(actionTime, new Event() {
+                void fire() {
+                    if (online && seq == requestSeq) {
+                        timeouts++;
+                        drop();
+                    }
+                }
+            });
+        }
+
+        private void reply(long seq) {
+            if (!online || seq != requestSeq) {
+                return;
+            }
+            requestSeq++;
+            int move;
+            if (random.nextDouble() < invalidRate) {
+                move = 8;
+                invalidMoves++;
+            } else {
+                move = pickColumn();
+                height[move - 1]++;
+            }
+            moves++;
+            answer(new Command("ACTION_REPLY", bid + ":0:" + move));
+        }
+
+        private int pickColumn() {
+            int start = random.nextInt(7);
+            for (int i = 0; i < 7; i++) {
+                int col = (start + i) % 7;
+                if (height[col] < 6) {
+                    return col + 1;
+                }
+            }
+            return 1;
+        }
+
+        private int parseMove(String payload) {
+            try {
+                return Integer.parseInt(payload.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The WebClientSwarm simulates a crowd of web browsers playing against bots
+ * through the Thrift interface (port 7911).  Each simulated browser opens its
+ * own Thrift connection, calls startGame() for its bot and then polls
+ * fetchResponse() at a configurable interval, exactly like the web page does.
+ * Whenever an ACTION_REQUEST shows up the browser answers it with makeMove()
+ * using a random legal column.  Finished, aborted or refused games are
+ * restarted after restartDelay milliseconds.
+ *
+ * The swarm needs bots to play against; run it together with the
+ * SwitchSimulator so that bots 1..N are online.  Browser i challenges bot
+ * (first + i), so the swarm size should not exceed the number of bots.
+ *
+ * Two latencies are reported.  moveLatency is the end-to-end time from a
+ * makeMove() call until the opponent's reply is returned by fetchResponse(),
+ * which includes the poll interval, the game server queues and the bot's
+ * think time.  pollLatency is the round trip of a single fetchResponse()
+ * call.  Parameters are key=value pairs, e.g.
+ *   java cw_generic.sim.WebClientSwarm host=localhost clients=1000 first=1
+ *        poll=250 threads=32 duration=120000
+ */
+
+package cw_generic.sim;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import connectFourServer.gen.WebInterface;
+
+import cw_generic.LatencyHistogram;
+
+public class WebClientSwarm {
+
+    private final String host;
+    private final int port;
+    private final int clients;
+    private final int firstBid;
+    private final long pollInterval;       // Milliseconds between fetchResponse() calls
+    private final long pollJitter;
+    private final long restartDelay;       // Pause before a browser starts a new game
+    private final long duration;
+    private final long reportInterval;
+
+    private final ScheduledExecutorService scheduler;
+    private final Random random = new Random();
+    private final List<Browser> browsers = new ArrayList<Browser>();
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final LatencyHistogram pollLatency = new LatencyHistogram();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong gamesStarted = new AtomicLong();
+    private final AtomicLong gamesFinished = new AtomicLong();
+    private final AtomicLong gamesAborted = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public static void main(String args[]) throws Exception {
+        Properties p = Args.parse(args);
+        new WebClientSwarm(p).run();
+    }
+
+    public WebClientSwarm(Properties p) {
+        this.host = p.getProperty("host", "localhost");
+        this.port = Integer.parseInt(p.getProperty("port", "7911"));
+        this.clients = Integer.parseInt(p.getProperty("clients", "100"));
+        this.firstBid = Integer.parseInt(p.getProperty("first", "1"));
+        this.pollInterval = Long.parseLong(p.getProperty("poll", "500"));
+        this.pollJitter = Long.parseLong(p.getProperty("pollJitter", "50"));
+        this.restartDelay = Long.parseLong(p.getProperty("restartDelay", "1000"));
+        this.duration = Long.parseLong(p.getProperty("duration", "0"));
+        this.reportInterval = Long.parseLong(p.getProperty("report", "5000"));
+        this.scheduler = Executors.newScheduledThreadPool(Integer.parseInt(p.getProperty("threads", "16")));
+    }
+
+    public void run() throws Exception {
+        System.out.println("WebClientSwarm starting " + clients + " browsers against " + host + ":" + port);
+        for (int i = 0; i < clients; i++) {
+            final Browser b = new Browser(firstBid + i);
+            browsers.add(b);
+            // Spread the initial connections over one poll interval.
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    b.start();
+                }
+            }, (long) (random.nextDouble() * pollInterval), TimeUnit.MILLISECONDS);
+        }
+        final long start = System.currentTimeMillis();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report(start);
+            }
+        }, reportInterval, reportInterval, TimeUnit.MILLISECONDS);
+        if (duration > 0) {
+            Thread.sleep(duration);
+            report(start);
+            scheduler.shutdownNow();
+            for (Browser b : browsers) {
+                b.close();
+            }
+        }
+    }
+
+    private void report(long start) {
+        double secs = (System.currentTimeMillis() - start) / 1000.0;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("[%8.1fs] polls/s=%.1f moves/s=%.1f started=%d finished=%d aborted=%d refused=%d errors=%d",
+                secs, polls.get() / secs, moves.get() / secs, gamesStarted.get(), gamesFinished.get(),
+                gamesAborted.get(), refused.get(), errors.get()));
+        sb.append("\n           moveLatency ").append(moveLatency.summary());
+        sb.append("\n           pollLatency ").append(pollLatency.summary());
+        moveLatency.reset();
+        pollLatency.reset();
+        System.out.println(sb);
+    }
+
+    private long nextPoll() {
+        if (pollJitter <= 0) {
+            return pollInterval;
+        }
+        return Math.max(1, pollInterval - pollJitter + (long) (random.nextDouble() * 2 * pollJitter));
+    }
+
+    // One simulated browser with its own Thrift connection.  Thrift clients
+    // are not thread safe, so every call is made while holding the monitor.
+    private class Browser implements Runnable {
+        private final int bid;
+        private TTransport transport;
+        private WebInterface.Client client;
+        private int[] height = new int[7];
+        private long moveSent;             // nanoTime of our last makeMove()
+        private boolean inGame;
+
+        Browser(int bid) {
+            this.bid = bid;
+        }
+
+        synchronized void start() {
+            try {
+                if (client == null) {
+                    transport = new TSocket(host, port);
+                    transport.open();
+                    client = new WebInterface.Client(new TBinaryProtocol(transport));
+                }
+                Arrays.fill(height, 0);
+                moveSent = 0;
+                inGame = true;
+                client.startGame(bid);
+                gamesStarted.incrementAndGet();
+            } catch (TException e) {
+                fail();
+                return;
+            }
+            schedule(nextPoll());
+        }
+
+        synchronized void close() {
+            if (transport != null) {
+                transport.close();
+            }
+            transport = null;
+            client = null;
+        }
+
+        private void schedule(long delay) {
+            scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void fail() {
+            errors.incrementAndGet();
+            close();
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    start();
+                }
+            }, restartDelay, TimeUnit.MILLISECONDS);
+        }
+
+        // Poll once and react to everything returned.
+        public synchronized void run() {
+            if (client == null) {
+                return;
+            }
+            String response;
+            try {
+                long t0 = System.nanoTime();
+                response = client.fetchResponse(bid);
+                pollLatency.record(System.nanoTime() - t0);
+                polls.incrementAndGet();
+                if (response != null && response.length() > 0) {
+                    for (String cmd : response.split("&&")) {
+                        if (cmd.length() > 0) {
+                            handle(cmd);
+                        }
+                    }
+                }
+            } catch (TException e) {
+                fail();
+                return;
+            }
+            if (inGame) {
+                schedule(nextPoll());
+            } else {
+                scheduler.schedule(new Runnable() {
+                    public void run() {
+                        start();
+                    }
+                }, restartDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void handle(String cmd) throws TException {
+            int sep = cmd.indexOf("<<");
+            String type = sep < 0 ? cmd : cmd.substring(0, sep);
+            String payload = sep < 0 ? "" : cmd.substring(sep + 2);
+            if (type.equals("ACTION_REQUEST")) {
+                if (moveSent != 0) {
+                    moveLatency.record(System.nanoTime() - moveSent);
+                }
+                int last = parseMove(payload);
+                if (last >= 1 && last <= 7) {
+                    height[last - 1]++;
+                }
+                int move = pickColumn();
+                height[move - 1]++;
+                moveSent = System.nanoTime();
+                client.makeMove(bid, move);
+                moves.incrementAndGet();
+            } else if (type.equals("GAME_REPORT")) {
+                if (moveSent != 0) {
+                    moveLatency.record(System.nanoTime() - moveSent);
+                }
+                gamesFinished.incrementAndGet();
+                inGame = false;
+            } else if (type.equals("GAME_ABORT")) {
+                gamesAborted.incrementAndGet();
+                inGame = false;
+            } else if (type.equals("SERVER_MESSAGE")) {
+                if (payload.endsWith("is Busy!") || payload.endsWith("is not Online!")) {
+                    refused.incrementAndGet();
+                    inGame = false;
+                }
+            }
+        }
+
+        private int pickColumn() {
+            int start = random.nextInt(7);
+            for (int i = 0; i < 7; i++) {
+                int col = (start + i) % 7;
+                if (height[col] < 6) {
+                    return col + 1;
+                }
+            }
+            return 1;
+        }
+
+        private int parseMove(String payload) {
+            try {
+                return Integer.parseInt(payload.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
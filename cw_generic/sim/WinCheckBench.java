@@ -0,0 +1,76 @@
+/*
+ * The WinCheckBench compares the two win checks of BoardGeometry: hasLine(),
+ * which scans every line of the board, and winsAt(), which only counts the
+ * runs through the disc just played.  For each board it plays random games,
+ * runs both checks after every move, fails if they ever disagree and
+ * reports the average time per check (including one System.nanoTime()
+ * call, which dominates the lastMove figure on most machines).  Boards are given as
+ * rows x cols / connect.  Example:
+ *   java cw_generic.sim.WinCheckBench games=20000 boards=6x7/4,7x8/4,7x9/5,12x14/6
+ */
+
+package cw_generic.sim;
+
+import java.util.*;
+
+import cw_generic.BoardGeometry;
+
+public class WinCheckBench {
+
+    public static void main(String args[]) {
+        Properties p = Args.parse(args);
+        int games = Integer.parseInt(p.getProperty("games", "20000"));
+        boolean ok = true;
+        for (String board : p.getProperty("boards", "6x7/4,7x8/4,7x9/5,12x14/6").split(",")) {
+            String[] rc = board.split("[x/]");
+            BoardGeometry g = BoardGeometry.of(Integer.parseInt(rc[0]), Integer.parseInt(rc[1]), Integer.parseInt(rc[2]));
+            ok &= run(g, games);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean run(BoardGeometry g, int games) {
+        Random random = new Random(11);
+        int[] board = new int[g.getCells()];
+        int[] height = new int[g.getCols()];
+        long checks = 0;
+        long scanNanos = 0;
+        long lastNanos = 0;
+        long mismatches = 0;
+        long wins = 0;
+        for (int game = 0; game < games; game++) {
+            Arrays.fill(board, 0);
+            Arrays.fill(height, 0);
+            int player = 1;
+            for (int move = 0; move < board.length; move++) {
+                int col;
+                do {
+                    col = random.nextInt(g.getCols());
+                } while (height[col] >= g.getRows());
+                int cell = g.cell(height[col]++, col);
+                board[cell] = player;
+
+                long t0 = System.nanoTime();
+                boolean scan = g.hasLine(board, player);
+                long t1 = System.nanoTime();
+                boolean last = g.winsAt(board, cell, player);
+                long t2 = System.nanoTime();
+                scanNanos += t1 - t0;
+                lastNanos += t2 - t1;
+                checks++;
+                if (scan != last) {
+                    mismatches++;
+                }
+                if (scan || last) {
+                    wins++;
+                    break;
+                }
+                player = 3 - player;
+            }
+        }
+        System.out.println(String.format("board=%dx%d/%d lines=%d games=%d checks=%d wins=%d scan=%.1fns lastMove=%.1fns mismatches=%d",
+                g.getRows(), g.getCols(), g.getConnect(), g.getLineCount(), games, checks, wins,
+                (double) scanNanos / checks, (double) lastNanos / checks, mismatches));
+        return mismatches == 0;
+    }
+}